@@ -0,0 +1,91 @@
+package io.koosha.huter;
+
+import io.koosha.huter.internal.HuterMetrics;
+import io.koosha.huter.internal.HuterTrace;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.QueryPlan;
+import org.apache.hadoop.hive.ql.exec.Task;
+import org.apache.hadoop.hive.ql.hooks.ExecuteWithHookContext;
+import org.apache.hadoop.hive.ql.hooks.HookContext;
+import org.apache.hadoop.hive.ql.log.PerfLogger;
+import org.apache.hadoop.hive.ql.session.SessionState;
+import org.apache.hive.service.cli.SessionHandle;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Post execution hook recording how the last statement of each session was actually executed: "fetch" when it needed
+ * no task at all (fetch task conversion), else the root tasks of its plan (TezTask, MapRedTask, DDLTask...).
+ * <p>
+ * Recorded per session rather than per thread, as asynchronous statements run their hooks on a thread of HiveServer2's
+ * background pool.
+ * <p>
+ * Also records the run time of the Tez DAG of the statement, as timed by Hive's perf logger, in the {@code dag.tez}
+ * latency distribution of {@link HuterMetrics}, and when tracing, adds it to the trace.
+ */
+public final class ExecutionAuditHook implements ExecuteWithHookContext {
+
+    /**
+     * Latency distribution of Tez DAG runs, see {@link HuterMetrics}.
+     */
+    public static final String DAG_METRIC = "dag.tez";
+
+    /**
+     * Session id -> execution of its last statement.
+     */
+    private static final Map<String, String> LAST = new ConcurrentHashMap<>();
+
+    /**
+     * Returns and forgets the execution recorded for the given session, null if none.
+     */
+    public static String takeLast(final SessionHandle session) {
+
+        return LAST.remove(session.getHandleIdentifier().toString());
+    }
+
+    @Override
+    public void run(final HookContext context) {
+
+        final QueryPlan plan = context.getQueryPlan();
+        final List<Task<? extends Serializable>> roots = plan == null ? null : plan.getRootTasks();
+
+        recordDag();
+
+        // HiveServer2 names the session state (and so the configuration of its queries) after the session handle.
+        final String session = context.getConf() == null
+                ? null
+                : context.getConf().getVar(HiveConf.ConfVars.HIVESESSIONID);
+        if (session == null)
+            return;
+
+        if (roots == null || roots.isEmpty())
+            LAST.put(session, "fetch");
+        else
+            LAST.put(session, roots.stream()
+                                   .map(it -> it.getClass().getSimpleName())
+                                   .distinct()
+                                   .collect(Collectors.joining(",")));
+    }
+
+    private static void recordDag() {
+
+        try {
+            final PerfLogger perf = SessionState.getPerfLogger();
+            final Long start = perf == null ? null : perf.getStartTime(PerfLogger.TEZ_RUN_DAG);
+            final Long end = perf == null ? null : perf.getEndTime(PerfLogger.TEZ_RUN_DAG);
+            if (start == null || end == null || start <= 0 || end < start)
+                return;
+
+            HuterMetrics.record(DAG_METRIC, (end - start) * 1000);
+            HuterTrace.complete("dag", "tez dag", start, end);
+        }
+        catch (final RuntimeException ignore) {
+            // Monitoring never fails a statement.
+        }
+    }
+
+}
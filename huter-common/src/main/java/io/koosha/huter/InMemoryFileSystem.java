@@ -0,0 +1,514 @@
+package io.koosha.huter;
+
+import io.koosha.huter.internal.HuterFiles;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.util.Progressable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hadoop FileSystem keeping everything in the JVM's heap, for throwaway table data: {@code huter-mem://volume/path}.
+ * <p>
+ * Every authority (volume) is an independent tree, shared by all instances in the JVM and living until
+ * {@link #drop(String)} is called, after which instances of the volume (kept by Hadoop's file system cache) fail.
+ * Registered through {@value #IMPL_KEY}.
+ */
+public final class InMemoryFileSystem extends FileSystem {
+
+    public static final String SCHEME = "huter-mem";
+    public static final String IMPL_KEY = "fs." + SCHEME + ".impl";
+
+    private static final String OWNER = "huter";
+
+    private static final Map<String, Volume> VOLUMES = new ConcurrentHashMap<>();
+
+    private URI uri;
+    private Path workingDir;
+    private Volume volume;
+
+    /**
+     * Location of the given local path in the given volume.
+     */
+    public static String location(final String volume,
+                                  final java.nio.file.Path path) {
+
+        return SCHEME + "://" + volume + path.toAbsolutePath();
+    }
+
+    /**
+     * Deletes the given location, if it exists, and creates it as an empty directory.
+     */
+    public static void recreateDir(final String location) throws IOException {
+
+        final URI u = URI.create(location);
+        final Volume v = volume(u.getAuthority());
+        final String key = key(u.getPath());
+        synchronized (v) {
+            v.delete(key, true);
+            v.mkdirs(key);
+        }
+    }
+
+    /**
+     * Total size of the files under the given location, 0 if it does not exist.
+     */
+    public static long sizeOf(final String location) {
+
+        final URI u = URI.create(location);
+        final Volume v = VOLUMES.get(u.getAuthority());
+        if (v == null)
+            return 0;
+
+        final String key = key(u.getPath());
+        long size = 0;
+        synchronized (v) {
+            for (final Map.Entry<String, Node> entry : v.subTree(key).entrySet())
+                if (!entry.getValue().dir)
+                    size += entry.getValue().data.length;
+        }
+        return size;
+    }
+
+    /**
+     * Writes the whole content of the given volume to the given local directory.
+     */
+    public static void export(final String volume,
+                              final java.nio.file.Path target) throws IOException {
+
+        final Volume v = VOLUMES.get(volume);
+        if (v == null)
+            return;
+
+        final Map<String, Node> nodes;
+        synchronized (v) {
+            nodes = new TreeMap<>(v.nodes);
+        }
+
+        for (final Map.Entry<String, Node> entry : nodes.entrySet()) {
+            final java.nio.file.Path dest = target.resolve(entry.getKey().substring(1));
+            if (entry.getValue().dir) {
+                HuterFiles.ensureDirectories(dest);
+            }
+            else {
+                HuterFiles.ensureDirectories(dest.getParent());
+                Files.write(dest, entry.getValue().data);
+            }
+        }
+    }
+
+    /**
+     * Forgets the given volume and everything in it.
+     */
+    public static void drop(final String volume) {
+
+        final Volume v = VOLUMES.remove(volume);
+        if (v == null)
+            return;
+
+        // Instances of the volume stay in Hadoop's file system cache for the JVM's life, do not let them keep the data.
+        synchronized (v) {
+            v.nodes.clear();
+            v.dropped = true;
+        }
+    }
+
+    private static Volume volume(final String authority) {
+
+        return VOLUMES.computeIfAbsent(authority == null ? "" : authority, ignore -> new Volume());
+    }
+
+    private static String key(final String path) {
+
+        if (path == null || path.isEmpty() || "/".equals(path))
+            return "/";
+        return path.endsWith("/")
+                ? path.substring(0, path.length() - 1)
+                : path;
+    }
+
+    // ------------------------------------------------------------------------
+
+    @Override
+    public void initialize(final URI name,
+                           final Configuration conf) throws IOException {
+
+        super.initialize(name, conf);
+        this.setConf(conf);
+        this.uri = URI.create(SCHEME + "://" + (name.getAuthority() == null ? "" : name.getAuthority()));
+        this.workingDir = new Path(this.uri.toString() + "/");
+        this.volume = volume(name.getAuthority());
+    }
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public URI getUri() {
+        return this.uri;
+    }
+
+    @Override
+    public void setWorkingDirectory(final Path newDir) {
+        this.workingDir = newDir;
+    }
+
+    @Override
+    public Path getWorkingDirectory() {
+        return this.workingDir;
+    }
+
+    @Override
+    public FSDataInputStream open(final Path f,
+                                  final int bufferSize) throws IOException {
+
+        final String key = this.keyOf(f);
+        final byte[] data;
+        synchronized (this.live()) {
+            final Node node = this.volume.nodes.get(key);
+            if (node == null)
+                throw new FileNotFoundException(f.toString());
+            if (node.dir)
+                throw new IOException("can not open a directory: " + f);
+            data = node.data;
+        }
+
+        return new FSDataInputStream(new ByteArrayFsInputStream(data));
+    }
+
+    @Override
+    public FSDataOutputStream create(final Path f,
+                                     final FsPermission permission,
+                                     final boolean overwrite,
+                                     final int bufferSize,
+                                     final short replication,
+                                     final long blockSize,
+                                     final Progressable progress) throws IOException {
+
+        final String key = this.keyOf(f);
+        synchronized (this.live()) {
+            final Node existing = this.volume.nodes.get(key);
+            if (existing != null && existing.dir)
+                throw new FileAlreadyExistsException("is a directory: " + f);
+            if (existing != null && !overwrite)
+                throw new FileAlreadyExistsException("file already exists: " + f);
+            this.volume.mkdirs(parentOf(key));
+            this.volume.nodes.put(key, Node.file(new byte[0]));
+        }
+
+        final Volume v = this.volume;
+        return new FSDataOutputStream(new ByteArrayOutputStream() {
+            private boolean closed;
+
+            @Override
+            public void close() {
+                if (this.closed)
+                    return;
+                this.closed = true;
+                synchronized (v) {
+                    if (!v.dropped)
+                        v.nodes.put(key, Node.file(this.toByteArray()));
+                }
+            }
+        }, this.statistics);
+    }
+
+    @Override
+    public FSDataOutputStream append(final Path f,
+                                     final int bufferSize,
+                                     final Progressable progress) throws IOException {
+
+        throw new IOException("append not supported by " + SCHEME);
+    }
+
+    @Override
+    public boolean rename(final Path src,
+                          final Path dst) throws IOException {
+
+        final String from = this.keyOf(src);
+        String to = this.keyOf(dst);
+        synchronized (this.live()) {
+            if ("/".equals(from) || !this.volume.nodes.containsKey(from))
+                return false;
+
+            final Node target = this.volume.nodes.get(to);
+            if (target != null && target.dir)
+                to = ("/".equals(to) ? "" : to) + "/" + from.substring(from.lastIndexOf('/') + 1);
+
+            final Node parent = this.volume.nodes.get(parentOf(to));
+            if (this.volume.nodes.containsKey(to)
+                    || parent == null
+                    || !parent.dir
+                    || to.equals(from)
+                    || to.startsWith(from + "/"))
+                return false;
+
+            final SortedMap<String, Node> moved = new TreeMap<>(this.volume.subTree(from));
+            for (final String key : moved.keySet())
+                this.volume.nodes.remove(key);
+            for (final Map.Entry<String, Node> entry : moved.entrySet())
+                this.volume.nodes.put(to + entry.getKey().substring(from.length()), entry.getValue());
+            return true;
+        }
+    }
+
+    @Override
+    public boolean delete(final Path f,
+                          final boolean recursive) throws IOException {
+
+        synchronized (this.live()) {
+            return this.volume.delete(this.keyOf(f), recursive);
+        }
+    }
+
+    @Override
+    public FileStatus[] listStatus(final Path f) throws IOException {
+
+        final String key = this.keyOf(f);
+        synchronized (this.live()) {
+            final Node node = this.volume.nodes.get(key);
+            if (node == null)
+                throw new FileNotFoundException(f.toString());
+            if (!node.dir)
+                return new FileStatus[]{this.status(key, node)};
+
+            final List<FileStatus> children = new ArrayList<>();
+            for (final Map.Entry<String, Node> entry : this.volume.children(key).entrySet())
+                children.add(this.status(entry.getKey(), entry.getValue()));
+            return children.toArray(new FileStatus[0]);
+        }
+    }
+
+    @Override
+    public boolean mkdirs(final Path f,
+                          final FsPermission permission) throws IOException {
+
+        synchronized (this.live()) {
+            this.volume.mkdirs(this.keyOf(f));
+            return true;
+        }
+    }
+
+    @Override
+    public FileStatus getFileStatus(final Path f) throws IOException {
+
+        final String key = this.keyOf(f);
+        synchronized (this.live()) {
+            final Node node = this.volume.nodes.get(key);
+            if (node == null)
+                throw new FileNotFoundException(f.toString());
+            return this.status(key, node);
+        }
+    }
+
+    private Volume live() throws IOException {
+
+        if (this.volume.dropped)
+            throw new IOException("volume dropped: " + this.uri);
+        return this.volume;
+    }
+
+    private String keyOf(final Path path) {
+
+        final Path absolute = path.isAbsolute() ? path : new Path(this.workingDir, path);
+        return key(absolute.toUri().getPath());
+    }
+
+    private FileStatus status(final String key,
+                              final Node node) {
+
+        return new FileStatus(
+                node.dir ? 0 : node.data.length,
+                node.dir,
+                1,
+                this.getDefaultBlockSize(),
+                node.modified,
+                node.modified,
+                node.dir ? FsPermission.getDirDefault() : FsPermission.getFileDefault(),
+                OWNER,
+                OWNER,
+                new Path(this.uri.toString() + key)
+        );
+    }
+
+    private static String parentOf(final String key) {
+
+        final int slash = key.lastIndexOf('/');
+        return slash <= 0 ? "/" : key.substring(0, slash);
+    }
+
+
+    /**
+     * A tree of nodes keyed by their absolute path, guarded by the volume's monitor.
+     */
+    private static final class Volume {
+
+        private final TreeMap<String, Node> nodes = new TreeMap<>();
+        private volatile boolean dropped;
+
+        private Volume() {
+            this.nodes.put("/", Node.dir());
+        }
+
+        private SortedMap<String, Node> subTree(final String key) {
+
+            if ("/".equals(key))
+                return this.nodes;
+
+            final SortedMap<String, Node> tree = new TreeMap<>(this.nodes.subMap(key + "/", key + "0"));
+            final Node node = this.nodes.get(key);
+            if (node != null)
+                tree.put(key, node);
+            return tree;
+        }
+
+        private SortedMap<String, Node> children(final String key) {
+
+            final String prefix = "/".equals(key) ? "/" : key + "/";
+            final SortedMap<String, Node> children = new TreeMap<>();
+            for (final Map.Entry<String, Node> entry : this.nodes.tailMap(prefix, false).entrySet()) {
+                if (!entry.getKey().startsWith(prefix))
+                    break;
+                if (entry.getKey().indexOf('/', prefix.length()) < 0)
+                    children.put(entry.getKey(), entry.getValue());
+            }
+            return children;
+        }
+
+        private void mkdirs(final String key) throws IOException {
+
+            if ("/".equals(key))
+                return;
+
+            final Node node = this.nodes.get(key);
+            if (node != null && !node.dir)
+                throw new FileAlreadyExistsException("is a file: " + key);
+            else if (node != null)
+                return;
+
+            this.mkdirs(parentOf(key));
+            this.nodes.put(key, Node.dir());
+        }
+
+        private boolean delete(final String key,
+                               final boolean recursive) throws IOException {
+
+            final Node node = this.nodes.get(key);
+            if (node == null)
+                return false;
+
+            if (node.dir && !recursive && !this.children(key).isEmpty())
+                throw new IOException("directory is not empty: " + key);
+
+            if ("/".equals(key)) {
+                this.nodes.clear();
+                this.nodes.put("/", Node.dir());
+            }
+            else {
+                for (final String toDelete : new ArrayList<>(this.subTree(key).keySet()))
+                    this.nodes.remove(toDelete);
+            }
+
+            return true;
+        }
+
+    }
+
+    private static final class Node {
+
+        private final boolean dir;
+        private final byte[] data;
+        private final long modified = System.currentTimeMillis();
+
+        private Node(final boolean dir,
+                     final byte[] data) {
+            this.dir = dir;
+            this.data = data;
+        }
+
+        private static Node dir() {
+            return new Node(true, null);
+        }
+
+        private static Node file(final byte[] data) {
+            return new Node(false, data);
+        }
+
+    }
+
+    private static final class ByteArrayFsInputStream extends FSInputStream {
+
+        private final byte[] data;
+        private int pos;
+
+        private ByteArrayFsInputStream(final byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public void seek(final long pos) throws IOException {
+
+            if (pos < 0 || pos > this.data.length)
+                throw new EOFException("can not seek to " + pos + ", length=" + this.data.length);
+            this.pos = (int) pos;
+        }
+
+        @Override
+        public long getPos() {
+            return this.pos;
+        }
+
+        @Override
+        public boolean seekToNewSource(final long targetPos) {
+            return false;
+        }
+
+        @Override
+        public int read() {
+            return this.pos < this.data.length ? this.data[this.pos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] b,
+                        final int off,
+                        final int len) {
+
+            if (len == 0)
+                return 0;
+            if (this.pos >= this.data.length)
+                return -1;
+
+            final int n = Math.min(len, this.data.length - this.pos);
+            System.arraycopy(this.data, this.pos, b, off, n);
+            this.pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return this.data.length - this.pos;
+        }
+
+    }
+
+}
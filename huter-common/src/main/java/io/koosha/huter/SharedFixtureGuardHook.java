@@ -0,0 +1,58 @@
+package io.koosha.huter;
+
+import io.koosha.huter.component.SharedFixtures;
+import org.apache.hadoop.hive.ql.exec.Task;
+import org.apache.hadoop.hive.ql.hooks.Entity;
+import org.apache.hadoop.hive.ql.hooks.WriteEntity;
+import org.apache.hadoop.hive.ql.parse.ASTNode;
+import org.apache.hadoop.hive.ql.parse.HiveSemanticAnalyzerHook;
+import org.apache.hadoop.hive.ql.parse.HiveSemanticAnalyzerHookContext;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Rejects statements writing to the shared database, see {@link SharedFixtures}, unless the session (or statement)
+ * has {@value #WRITABLE} set to true, which is only the case while the shared components are being loaded.
+ */
+public final class SharedFixtureGuardHook implements HiveSemanticAnalyzerHook {
+
+    public static final String WRITABLE = "huter.shared.writable";
+
+    @Override
+    public ASTNode preAnalyze(final HiveSemanticAnalyzerHookContext context,
+                              final ASTNode ast) {
+
+        return ast;
+    }
+
+    @Override
+    public void postAnalyze(final HiveSemanticAnalyzerHookContext context,
+                            final List<Task<? extends Serializable>> tasks) throws SemanticException {
+
+        if (context.getConf().getBoolean(WRITABLE, false) || context.getOutputs() == null)
+            return;
+
+        for (final WriteEntity output : context.getOutputs())
+            if (SharedFixtures.DATABASE.equalsIgnoreCase(databaseOf(output)))
+                throw new SemanticException("shared components are read-only, can not write to: " + output);
+    }
+
+    private static String databaseOf(final Entity entity) {
+
+        switch (entity.getType()) {
+            case DATABASE:
+                return entity.getDatabase() == null ? null : entity.getDatabase().getName();
+
+            case TABLE:
+            case PARTITION:
+            case DUMMYPARTITION:
+                return entity.getTable() == null ? null : entity.getTable().getDbName();
+
+            default:
+                return null;
+        }
+    }
+
+}
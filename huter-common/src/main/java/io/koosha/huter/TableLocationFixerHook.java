@@ -1,41 +1,42 @@
 package io.koosha.huter;
 
-import io.koosha.huter.internal.HuterFiles;
 import org.apache.hadoop.hive.ql.exec.Task;
 import org.apache.hadoop.hive.ql.lib.Node;
 import org.apache.hadoop.hive.ql.parse.ASTNode;
 import org.apache.hadoop.hive.ql.parse.HiveParser;
 import org.apache.hadoop.hive.ql.parse.HiveSemanticAnalyzerHook;
 import org.apache.hadoop.hive.ql.parse.HiveSemanticAnalyzerHookContext;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.io.Serializable;
-import java.nio.file.Path;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 public final class TableLocationFixerHook implements HiveSemanticAnalyzerHook {
 
-    private static final Logger LOG = LoggerFactory.getLogger(TableLocationFixerHook.class);
+    /**
+     * Statement (or session) level configuration key holding the location to force on created tables.
+     */
+    public static final String TABLE_LOCATION = "huter.table.location";
 
-    private static Path nextTableLocation = null; // single threaded
+    /**
+     * The conf overlay which makes the next statements executed with it create their tables in the given location.
+     */
+    public static Map<String, String> tableLocation(final String location) {
 
-    public static void prepareAndRememberNextTable(final Path nextTable) throws IOException {
-
-        Objects.requireNonNull(nextTable, "nextTable path can not be null");
-
-        LOG.trace("prepareAndRememberNextTable(nextTable={})", nextTable);
-
-        nextTableLocation = nextTable;
-        HuterFiles.recreateDir(nextTable);
+        Objects.requireNonNull(location, "location can not be null");
+        return Collections.singletonMap(TABLE_LOCATION, location);
     }
 
     @Override
     public ASTNode preAnalyze(final HiveSemanticAnalyzerHookContext paramHiveSemanticAnalyzerHookContext,
                               final ASTNode paramASTNode) {
 
+        final String tableLocation = paramHiveSemanticAnalyzerHookContext.getConf().get(TABLE_LOCATION);
+        if (tableLocation == null)
+            return paramASTNode;
+
         // Why is the || needed? nasty bug? in debugger says == is true, but
         // the jvm evaluates it as false anyway!!!
         // One of the most annoying sh*t I ever witnessed.
@@ -53,7 +54,7 @@ public final class TableLocationFixerHook implements HiveSemanticAnalyzerHook {
 
             if (location != null) {
                 final ASTNode locPath = (ASTNode) location.getChild(0);
-                locPath.token.setText('"' + "file://" + nextTableLocation.toString() + '"');
+                locPath.token.setText('"' + tableLocation + '"');
             }
         }
 
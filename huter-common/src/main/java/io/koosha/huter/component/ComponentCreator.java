@@ -4,7 +4,16 @@ import io.koosha.huter.runner.HuterContext;
 import io.koosha.huter.internal.PathToContentFun;
 
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
 
+/**
+ * Creates a component listed in a components file (dependencies.txt).
+ * <p>
+ * Implementations are discovered through {@link java.util.ServiceLoader} or by their class name, see
+ * {@link ComponentCreatorRegistry}. A single instance is shared by all the tests of the JVM, possibly from several
+ * threads at once, so implementations must be stateless (or thread safe).
+ */
 public interface ComponentCreator {
 
     void create(HuterContext ctx,
@@ -12,4 +21,11 @@ public interface ComponentCreator {
                 Path dataPath,
                 String param) throws Exception;
 
+    /**
+     * Component types (first word of the component line) handled by this creator.
+     */
+    default Collection<String> getTypes() {
+        return Collections.singleton(this.getClass().getName());
+    }
+
 }
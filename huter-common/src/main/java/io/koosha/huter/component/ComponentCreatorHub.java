@@ -1,11 +1,30 @@
 package io.koosha.huter.component;
 
+import io.koosha.huter.internal.HuterExecutors;
+import io.koosha.huter.internal.HuterMetrics;
+import io.koosha.huter.internal.HuterProperties;
+import io.koosha.huter.internal.HuterThrowables;
 import io.koosha.huter.internal.PathToContentFun;
 import io.koosha.huter.runner.HuterContext;
+import org.apache.hadoop.hive.ql.metadata.Hive;
+import org.apache.hive.service.cli.HiveSQLException;
+import org.apache.hive.service.cli.SessionHandle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public final class ComponentCreatorHub {
 
@@ -14,87 +33,414 @@ public final class ComponentCreatorHub {
     public static final String COMMAND_SEPARATOR_REGEX = "\\s";
     public static final String COMMENT_SEPARATOR_REGEX = "#";
 
+    /**
+     * Max number of components created concurrently, each worker using its own session. 1 disables concurrency.
+     */
+    public static final String PARALLELISM_PROPERTY = "huter.component.parallelism";
+
     private final PathToContentFun reader;
     private final DatabaseCreator dbCreator;
     private final FileBasedTableCreator fileBasedTableCreator;
     private final FunctionCreator functionCreator;
+    private final int parallelism;
 
     public ComponentCreatorHub(final PathToContentFun reader) {
         this.reader = reader;
         this.dbCreator = new DatabaseCreator();
         this.fileBasedTableCreator = new FileBasedTableCreator();
         this.functionCreator = new FunctionCreator();
+        this.parallelism = Math.max(1, HuterProperties.getInt(
+                PARALLELISM_PROPERTY,
+                Math.min(4, Runtime.getRuntime().availableProcessors())
+        ));
+    }
+
+    /**
+     * Creates all the given components, concurrently where they do not depend on each other.
+     * <p>
+     * Databases are created before tables and functions (which might live in them). Components handled by custom
+     * creators have unknown dependencies, so they are created alone, in their declared order, after everything
+     * declared before them.
+     */
+    public void createComponents(final HuterContext ctx,
+                                 final Path dataPath,
+                                 final Collection<String> definitions) throws Exception {
+
+        this.createComponents(ctx, dataPath, definitions, null);
+    }
+
+    /**
+     * Same as {@link #createComponents(HuterContext, Path, Collection)}, but all components are created in sessions
+     * opened with the given configuration (see {@link HuterContext#openSession(Map)}), leaving the context's main
+     * session untouched.
+     */
+    public void createComponents(final HuterContext ctx,
+                                 final Path dataPath,
+                                 final Collection<String> definitions,
+                                 final Map<String, String> sessionConfiguration) throws Exception {
+
+        final List<List<Component>> stages = plan(definitions);
+        final int maxStageSize = stages.stream().mapToInt(List::size).max().orElse(0);
+
+        if (this.parallelism == 1 || maxStageSize <= 1) {
+            final List<Component> all = new ArrayList<>();
+            stages.forEach(all::addAll);
+            if (sessionConfiguration == null)
+                for (final Component component : all)
+                    this.create(ctx, dataPath, component);
+            else
+                this.createInWorkerSession(ctx, dataPath, sessionConfiguration, all);
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(this.parallelism, maxStageSize),
+                HuterExecutors.daemonThreadFactory("huter-component")
+        );
+
+        try {
+            for (final List<Component> stage : stages)
+                this.createStage(executor, ctx, dataPath, sessionConfiguration, stage);
+        }
+        finally {
+            executor.shutdownNow();
+        }
     }
 
     public void createComponent(final HuterContext ctx,
                                 final Path dataPath,
                                 final String definition) throws Exception {
 
-        if (definition.trim().startsWith(COMMENT_SEPARATOR_REGEX) || definition.trim().isEmpty())
+        final Component component = Component.parse(definition);
+        if (component != null)
+            this.create(ctx, dataPath, component);
+    }
+
+    /**
+     * Text identifying everything the given components create, including the content of table definition files.
+     *
+     * @return null if custom creators are involved, as what they create can not be known.
+     */
+    public String fingerprint(final Collection<String> definitions) throws IOException {
+
+        final StringBuilder sb = new StringBuilder();
+        for (final List<Component> stage : plan(definitions))
+            for (final Component component : stage) {
+                if (component.kind == Kind.CUSTOM)
+                    return null;
+
+                sb.append(component.type).append(' ').append(component.param).append('\n');
+                if (component.kind == Kind.TABLE)
+                    sb.append(this.reader.read(Paths.get(
+                            component.param.trim().split(COMMENT_SEPARATOR_REGEX)[0].trim()
+                    ))).append('\n');
+            }
+
+        return sb.toString();
+    }
+
+    private void createStage(final ExecutorService executor,
+                             final HuterContext ctx,
+                             final Path dataPath,
+                             final Map<String, String> sessionConfiguration,
+                             final List<Component> stage) throws Exception {
+
+        if (stage.size() == 1 && sessionConfiguration == null) {
+            this.create(ctx, dataPath, stage.get(0));
+            return;
+        }
+
+        if (stage.stream().allMatch(it -> it.kind == Kind.DATABASE)) {
+            this.createDatabases(ctx, sessionConfiguration, stage);
             return;
+        }
+
+        // One session per worker, components spread round-robin among them.
+        final int workers = Math.min(this.parallelism, stage.size());
+        final List<List<Component>> buckets = new ArrayList<>();
+        for (int i = 0; i < workers; i++)
+            buckets.add(new ArrayList<>());
+        for (int i = 0; i < stage.size(); i++)
+            buckets.get(i % workers).add(stage.get(i));
+
+        final List<Future<?>> futures = new ArrayList<>();
+        for (final List<Component> bucket : buckets)
+            futures.add(executor.submit(() -> {
+                try {
+                    this.createInWorkerSession(ctx, dataPath, sessionConfiguration, bucket);
+                    return null;
+                }
+                finally {
+                    // The metastore client of the worker thread (see HuterContext#getMetaStoreClient), which dies
+                    // with the executor.
+                    Hive.closeCurrent();
+                }
+            }));
+
+        Throwable err = null;
+        for (final Future<?> future : futures)
+            try {
+                future.get();
+            }
+            catch (final ExecutionException e) {
+                err = HuterThrowables.merge(err, e.getCause());
+            }
+
+        if (err instanceof Exception)
+            throw (Exception) err;
+        else if (err != null)
+            throw new Exception(err);
+    }
+
+    /**
+     * A database is a single statement, so rather than tying up a thread per worker session, the statements are
+     * submitted asynchronously (see {@link HuterContext#executeSqlAsync(String)}) to all the sessions at once.
+     */
+    private void createDatabases(final HuterContext ctx,
+                                 final Map<String, String> sessionConfiguration,
+                                 final List<Component> databases) throws Exception {
+
+        final int workers = Math.min(this.parallelism, databases.size());
+        final List<StringBuilder> scripts = new ArrayList<>();
+        for (int i = 0; i < workers; i++)
+            scripts.add(new StringBuilder());
+        for (int i = 0; i < databases.size(); i++)
+            scripts.get(i % workers)
+                   .append(DatabaseCreator.sql(databases.get(i).param.trim().split(COMMENT_SEPARATOR_REGEX)[0].trim()))
+                   .append(";\n");
+
+        final List<SessionHandle> sessions = new ArrayList<>();
+        try {
+            final List<List<CompletableFuture<List<Object[]>>>> chains = new ArrayList<>();
+            for (final StringBuilder script : scripts) {
+                final SessionHandle session = sessionConfiguration == null
+                        ? ctx.openSession()
+                        : ctx.openSession(sessionConfiguration);
+                sessions.add(session);
+                try (final AutoCloseable ignore = ctx.bindSession(session)) {
+                    chains.add(ctx.executeSqlAsync(script.toString()));
+                }
+                timeEach(chains.get(chains.size() - 1));
+            }
+
+            Throwable err = null;
+            for (final List<CompletableFuture<List<Object[]>>> chain : chains)
+                for (final CompletableFuture<List<Object[]>> future : chain)
+                    try {
+                        if (!future.get().isEmpty())
+                            err = HuterThrowables.merge(err, new HiveSQLException("create database must not return result"));
+                    }
+                    catch (final ExecutionException e) {
+                        // The statements after a failed one fail with it.
+                        err = HuterThrowables.merge(err, e.getCause());
+                        break;
+                    }
+
+            if (err instanceof Exception)
+                throw (Exception) err;
+            else if (err != null)
+                throw new Exception(err);
+        }
+        finally {
+            for (final SessionHandle session : sessions)
+                ctx.closeSession(session);
+        }
+    }
 
-        final String[] elements = definition.split(COMMAND_SEPARATOR_REGEX, 2);
-        if (elements.length != 2)
-            throw new IllegalArgumentException("bad component definition: " + definition);
+    /**
+     * Records the duration of each statement of the chain, which starts when the previous one finished.
+     */
+    private static void timeEach(final List<CompletableFuture<List<Object[]>>> chain) {
 
-        final String type = elements[0].trim();
-        final String param = elements[1];
+        CompletableFuture<?> previous = CompletableFuture.completedFuture(null);
+        for (final CompletableFuture<List<Object[]>> future : chain) {
+            previous.whenComplete((ignored, error) -> {
+                final HuterMetrics.Timer timer = HuterMetrics.time("component." + Kind.DATABASE.name().toLowerCase());
+                future.whenComplete((result, e) -> timer.close());
+            });
+            previous = future;
+        }
+    }
+
+    private void createInWorkerSession(final HuterContext ctx,
+                                       final Path dataPath,
+                                       final Map<String, String> sessionConfiguration,
+                                       final List<Component> components) throws Exception {
 
-        LOGGER.debug("creating component type={}, param={}", type, param);
+        final SessionHandle session = sessionConfiguration == null
+                ? ctx.openSession()
+                : ctx.openSession(sessionConfiguration);
+        try (final AutoCloseable ignore = ctx.bindSession(session)) {
+            for (final Component component : components)
+                this.create(ctx, dataPath, component);
+        }
+        finally {
+            ctx.closeSession(session);
+        }
+    }
+
+    private void create(final HuterContext ctx,
+                        final Path dataPath,
+                        final Component component) throws Exception {
+
+        LOGGER.debug("creating component type={}, param={}", component.type, component.param);
+
+        try (final HuterMetrics.Timer ignored = HuterMetrics.time("component." + component.metricName())) {
+            this.create0(ctx, dataPath, component);
+        }
+    }
 
-        switch (type.toUpperCase()) {
-            case "DATABASE":
+    private void create0(final HuterContext ctx,
+                         final Path dataPath,
+                         final Component component) throws Exception {
+
+        switch (component.kind) {
+            case DATABASE:
                 this.dbCreator.create(
                         ctx,
                         this.reader,
                         dataPath,
-                        param.trim().split(COMMENT_SEPARATOR_REGEX)[0].trim()
+                        component.param.trim().split(COMMENT_SEPARATOR_REGEX)[0].trim()
                 );
                 break;
 
-            case "FUNCTION":
+            case FUNCTION:
                 this.functionCreator.create(
                         ctx,
                         this.reader,
                         dataPath,
-                        param.trim().split(COMMENT_SEPARATOR_REGEX)[0].trim()
+                        component.param.trim().split(COMMENT_SEPARATOR_REGEX)[0].trim()
                 );
                 break;
 
-            case "TABLEFILE":
-            case "TABLE_FILE":
-            case "TABLE":
-            case "FILE":
+            case TABLE:
                 this.fileBasedTableCreator.create(
                         ctx,
                         this.reader,
                         dataPath,
-                        param.trim().split(COMMENT_SEPARATOR_REGEX)[0].trim()
+                        component.param.trim().split(COMMENT_SEPARATOR_REGEX)[0].trim()
                 );
                 break;
 
             default:
-                this.findComponentCreator(type)
-                    .create(ctx, this.reader, dataPath, param);
+                ComponentCreatorRegistry
+                        .find(component.type)
+                        .create(ctx, this.reader, dataPath, component.param);
         }
     }
 
-    private ComponentCreator findComponentCreator(final String type) {
+    private static List<List<Component>> plan(final Collection<String> definitions) {
 
-        final Class<?> handlerClass;
-        try {
-            handlerClass = Class.forName(type);
+        final List<List<Component>> stages = new ArrayList<>();
+        final List<Component> databases = new ArrayList<>();
+        final List<Component> dependants = new ArrayList<>();
+
+        for (final String definition : definitions) {
+            final Component component = Component.parse(definition);
+            if (component == null)
+                continue;
+
+            switch (component.kind) {
+                case DATABASE:
+                    databases.add(component);
+                    break;
+
+                case FUNCTION:
+                case TABLE:
+                    dependants.add(component);
+                    break;
+
+                default:
+                    flush(stages, databases, dependants);
+                    stages.add(Collections.singletonList(component));
+            }
         }
-        catch (final ClassNotFoundException e) {
-            throw new IllegalArgumentException("no component creator registered for the given type=" + type);
+
+        flush(stages, databases, dependants);
+        return stages;
+    }
+
+    private static void flush(final List<List<Component>> stages,
+                              final List<Component> databases,
+                              final List<Component> dependants) {
+
+        if (!databases.isEmpty())
+            stages.add(new ArrayList<>(databases));
+        if (!dependants.isEmpty())
+            stages.add(new ArrayList<>(dependants));
+
+        databases.clear();
+        dependants.clear();
+    }
+
+
+    private enum Kind {
+        DATABASE,
+        FUNCTION,
+        TABLE,
+        CUSTOM,
+    }
+
+    private static final class Component {
+
+        private final Kind kind;
+        private final String type;
+        private final String param;
+
+        private Component(final Kind kind,
+                          final String type,
+                          final String param) {
+            this.kind = kind;
+            this.type = type;
+            this.param = param;
         }
 
-        try {
-            return (ComponentCreator) handlerClass.newInstance();
+        private static Component parse(final String definition) {
+
+            if (definition.trim().startsWith(COMMENT_SEPARATOR_REGEX) || definition.trim().isEmpty())
+                return null;
+
+            final String[] elements = definition.split(COMMAND_SEPARATOR_REGEX, 2);
+            if (elements.length != 2)
+                throw new IllegalArgumentException("bad component definition: " + definition);
+
+            final String type = elements[0].trim();
+            final String param = elements[1];
+
+            final Kind kind;
+            switch (type.toUpperCase()) {
+                case "DATABASE":
+                    kind = Kind.DATABASE;
+                    break;
+
+                case "FUNCTION":
+                    kind = Kind.FUNCTION;
+                    break;
+
+                case "TABLEFILE":
+                case "TABLE_FILE":
+                case "TABLE":
+                case "FILE":
+                    kind = Kind.TABLE;
+                    break;
+
+                default:
+                    kind = Kind.CUSTOM;
+            }
+
+            return new Component(kind, type, param);
         }
-        catch (final ClassCastException | InstantiationException | IllegalAccessException e) {
-            throw new RuntimeException("failed to instantiate handler for type=" + type, e);
+
+        /**
+         * Built-in types under their kind (the aliases of tables are one), custom ones under their own name.
+         */
+        private String metricName() {
+
+            return this.kind == Kind.CUSTOM
+                    ? this.type
+                    : this.kind.name().toLowerCase();
         }
+
     }
 
 }
@@ -0,0 +1,69 @@
+package io.koosha.huter.component;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JVM wide registry of custom {@link ComponentCreator}s, keyed by component type.
+ * <p>
+ * Creators listed in META-INF/services/io.koosha.huter.component.ComponentCreator are discovered once, on first use.
+ * Any other type is taken as a class name, which is instantiated once and cached as well.
+ */
+public final class ComponentCreatorRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ComponentCreatorRegistry.class);
+
+    private static final Map<String, ComponentCreator> CREATORS = new ConcurrentHashMap<>();
+
+    static {
+        for (final ComponentCreator creator : ServiceLoader.load(ComponentCreator.class))
+            for (final String type : creator.getTypes()) {
+                LOG.debug("discovered component creator, type={} creator={}", type, creator.getClass().getName());
+                final ComponentCreator existing = CREATORS.putIfAbsent(type, creator);
+                if (existing != null)
+                    LOG.warn("multiple component creators for type={}, using={} ignoring={}",
+                            type, existing.getClass().getName(), creator.getClass().getName());
+            }
+    }
+
+    private ComponentCreatorRegistry() {
+        throw new UnsupportedOperationException("can not instantiate utility class");
+    }
+
+    public static void register(final String type,
+                                final ComponentCreator creator) {
+
+        Objects.requireNonNull(type, "type can not be null");
+        Objects.requireNonNull(creator, "creator can not be null");
+        CREATORS.put(type, creator);
+    }
+
+    public static ComponentCreator find(final String type) {
+
+        return CREATORS.computeIfAbsent(type, ComponentCreatorRegistry::instantiate);
+    }
+
+    private static ComponentCreator instantiate(final String type) {
+
+        final Class<?> handlerClass;
+        try {
+            handlerClass = Class.forName(type);
+        }
+        catch (final ClassNotFoundException e) {
+            throw new IllegalArgumentException("no component creator registered for the given type=" + type);
+        }
+
+        try {
+            return (ComponentCreator) handlerClass.newInstance();
+        }
+        catch (final ClassCastException | InstantiationException | IllegalAccessException e) {
+            throw new RuntimeException("failed to instantiate handler for type=" + type, e);
+        }
+    }
+
+}
@@ -16,7 +16,7 @@ final class DatabaseCreator implements ComponentCreator {
                        final Path dataPath,
                        final String param) throws HiveSQLException {
 
-        final String sql = "CREATE DATABASE IF NOT EXISTS " + param;
+        final String sql = sql(param);
 
         final List<Object[]> result = ctx.executeSql(sql);
 
@@ -24,4 +24,9 @@ final class DatabaseCreator implements ComponentCreator {
             throw new HiveSQLException("create database must not return result", sql);
     }
 
+    static String sql(final String param) {
+
+        return "CREATE DATABASE IF NOT EXISTS " + param;
+    }
+
 }
@@ -1,31 +1,56 @@
 package io.koosha.huter.component;
 
 import io.koosha.huter.TableLocationFixerHook;
+import io.koosha.huter.internal.HuterMetrics;
+import io.koosha.huter.internal.HuterProperties;
 import io.koosha.huter.runner.HuterContext;
 import io.koosha.huter.internal.PathToContentFun;
-import org.apache.hadoop.hive.ql.lockmgr.LockException;
 import org.apache.hive.service.cli.HiveSQLException;
 
-import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Map;
 
 final class FileBasedTableCreator implements ComponentCreator {
 
+    /**
+     * Whether if tables already created once in this JVM should be registered directly through the metastore API,
+     * see {@link TableDefinitionCache}.
+     */
+    static final String METASTORE_FAST_PATH_PROPERTY = "huter.component.metastoreFastPath";
+
+    private final boolean fastPath = HuterProperties.getBoolean(METASTORE_FAST_PATH_PROPERTY, true);
+
     @Override
     public void create(final HuterContext ctx,
                        final PathToContentFun reader,
                        final Path dataPath,
-                       final String param) throws HiveSQLException, IOException {
-
-        final Path loc = dataPath.resolve(param);
-        TableLocationFixerHook.prepareAndRememberNextTable(loc);
+                       final String param) throws Exception {
 
+        final Map<String, String> location = TableLocationFixerHook.tableLocation(
+                ctx.recreateLocation(dataPath.resolve(param))
+        );
         final String content = reader.read(Paths.get(param));
-        final List<Object[]> result = ctx.executeSql(content);
+
+        final TableDefinitionCache.Definition definition = this.fastPath
+                ? TableDefinitionCache.get(content)
+                : null;
+
+        if (definition != null && definition.isSupported())
+            HuterMetrics.tableDefinitionLookup(definition.isCaptured());
+
+        if (definition != null && definition.isCaptured()) {
+            definition.register(ctx, location.get(TableLocationFixerHook.TABLE_LOCATION));
+            return;
+        }
+
+        final List<Object[]> result = ctx.executeSql(content, location);
         if (!result.isEmpty())
             throw new HiveSQLException("create table must not return result", content);
+
+        if (definition != null && definition.isSupported())
+            definition.capture(ctx, location.get(TableLocationFixerHook.TABLE_LOCATION));
     }
 
 }
@@ -0,0 +1,201 @@
+package io.koosha.huter.component;
+
+import io.koosha.huter.SharedFixtureGuardHook;
+import io.koosha.huter.internal.HuterFiles;
+import io.koosha.huter.internal.HuterHashes;
+import io.koosha.huter.runner.HuterContext;
+import org.apache.hadoop.hive.metastore.IMetaStoreClient;
+import org.apache.hadoop.hive.metastore.api.Database;
+import org.apache.hadoop.hive.metastore.api.Function;
+import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.hive.service.cli.SessionHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Repo level base fixtures: components (and the setup populating them) which no test modifies, created and loaded
+ * once per JVM in the {@value #DATABASE} database.
+ * <p>
+ * The first test declaring them creates them through SQL, in a dedicated session, with their data kept in a
+ * directory shared by the whole JVM. Their metadata is then read back from the metastore, and registered directly
+ * into the metastore of every later test, pointing to the same data. Writes to the shared database are rejected by
+ * {@link SharedFixtureGuardHook}. Changing the declaration, the setup or the table definition files they refer to
+ * makes them new fixtures, loaded again.
+ */
+public final class SharedFixtures {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedFixtures.class);
+
+    public static final String DATABASE = "huter_shared";
+
+    /**
+     * Directory under the context's output directory holding the data of shared components.
+     */
+    public static final String SHARED_DIR = "_shared";
+
+    private static final String LAST_DDL_TIME = "transient_lastDdlTime";
+
+    private static final Map<String, Fixture> FIXTURES = new ConcurrentHashMap<>();
+
+    private SharedFixtures() {
+        throw new UnsupportedOperationException("can not instantiate utility class");
+    }
+
+    /**
+     * Makes the shared components declared by the context available to it, creating them if this is the first time
+     * they are requested in this JVM.
+     */
+    public static void attach(final HuterContext ctx,
+                              final ComponentCreatorHub hub) throws Exception {
+
+        final Collection<String> components = ctx.getSharedTables();
+        final List<String> setup = ctx.getSharedSetupFilesContent();
+        if (components.isEmpty() && setup.isEmpty())
+            return;
+
+        // The content of the table definition files too, for a long living JVM to pick up their changes. Custom
+        // components can not be fingerprinted, only their declaration is known.
+        final String fingerprint = hub.fingerprint(components);
+        final String key = HuterHashes.sha256(
+                fingerprint == null ? String.join("\n", components) : fingerprint,
+                String.join("\n;\n", setup)
+        );
+
+        FIXTURES.computeIfAbsent(key, Fixture::new).attach(ctx, hub, components, setup);
+    }
+
+
+    private static final class Fixture {
+
+        private final String hash;
+
+        private Database database;
+        private List<Table> tables;
+        private List<Partition> partitions;
+        private List<Function> functions;
+
+        private Fixture(final String hash) {
+            this.hash = hash;
+        }
+
+        private synchronized void attach(final HuterContext ctx,
+                                         final ComponentCreatorHub hub,
+                                         final Collection<String> components,
+                                         final List<String> setup) throws Exception {
+
+            if (this.database == null) {
+                this.load(ctx, hub, components, setup);
+                this.capture(ctx);
+            }
+            else {
+                this.register(ctx);
+            }
+        }
+
+        private void load(final HuterContext ctx,
+                          final ComponentCreatorHub hub,
+                          final Collection<String> components,
+                          final List<String> setup) throws Exception {
+
+            final Path baseDir = ctx.getOutDir().resolve(SHARED_DIR).resolve(this.hash.substring(0, 16));
+            LOG.info("loading shared components, dir={}", baseDir);
+            HuterFiles.recreateDir(baseDir);
+            ctx.keepOnDisk(baseDir);
+
+            final Map<String, String> configuration = new HashMap<>();
+            configuration.put("set:hiveconf:" + SharedFixtureGuardHook.WRITABLE, "true");
+
+            final SessionHandle session = ctx.openSession(configuration);
+            try (final AutoCloseable ignore = ctx.bindSession(session)) {
+                ctx.executeSql("CREATE DATABASE IF NOT EXISTS " + DATABASE
+                        + " LOCATION 'file://" + baseDir.resolve(HuterContext.HIVE_WAREHOUSE) + "'");
+            }
+            finally {
+                ctx.closeSession(session);
+            }
+
+            configuration.put("use:database", DATABASE);
+            hub.createComponents(ctx, baseDir.resolve("table_data"), components, configuration);
+
+            final SessionHandle setupSession = ctx.openSession(configuration);
+            try (final AutoCloseable ignore = ctx.bindSession(setupSession)) {
+                for (final String content : setup)
+                    ctx.executeSql(content);
+            }
+            finally {
+                ctx.closeSession(setupSession);
+            }
+        }
+
+        private void capture(final HuterContext ctx) throws Exception {
+
+            final IMetaStoreClient msc = ctx.getMetaStoreClient();
+
+            final List<Table> tables = new ArrayList<>();
+            final List<Partition> partitions = new ArrayList<>();
+            for (final String name : msc.getAllTables(DATABASE)) {
+                tables.add(msc.getTable(DATABASE, name).deepCopy());
+                for (final Partition partition : msc.listPartitions(DATABASE, name, (short) -1))
+                    partitions.add(partition.deepCopy());
+            }
+
+            final List<Function> functions = new ArrayList<>();
+            for (final String name : msc.getFunctions(DATABASE, "*"))
+                functions.add(msc.getFunction(DATABASE, name).deepCopy());
+
+            this.tables = Collections.unmodifiableList(tables);
+            this.partitions = Collections.unmodifiableList(partitions);
+            this.functions = Collections.unmodifiableList(functions);
+            this.database = msc.getDatabase(DATABASE).deepCopy();
+
+            LOG.info("shared components loaded, tables={} partitions={} functions={}",
+                    tables.size(), partitions.size(), functions.size());
+        }
+
+        private void register(final HuterContext ctx) throws Exception {
+
+            final int now = (int) (System.currentTimeMillis() / 1000);
+            final IMetaStoreClient msc = ctx.getMetaStoreClient();
+
+            msc.createDatabase(this.database.deepCopy());
+
+            for (final Table template : this.tables) {
+                final Table table = template.deepCopy();
+                table.setCreateTime(now);
+                if (table.getParameters() != null)
+                    table.getParameters().remove(LAST_DDL_TIME);
+                msc.createTable(table);
+            }
+
+            if (!this.partitions.isEmpty()) {
+                final List<Partition> partitions = new ArrayList<>();
+                for (final Partition template : this.partitions) {
+                    final Partition partition = template.deepCopy();
+                    partition.setCreateTime(now);
+                    if (partition.getParameters() != null)
+                        partition.getParameters().remove(LAST_DDL_TIME);
+                    partitions.add(partition);
+                }
+                msc.add_partitions(partitions);
+            }
+
+            for (final Function template : this.functions) {
+                final Function function = template.deepCopy();
+                function.setCreateTime(now);
+                msc.createFunction(function);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,246 @@
+package io.koosha.huter.component;
+
+import io.koosha.huter.internal.HuterAst;
+import io.koosha.huter.runner.HuterContext;
+import org.apache.hadoop.hive.metastore.IMetaStoreClient;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.hadoop.hive.ql.parse.ASTNode;
+import org.apache.hadoop.hive.ql.parse.HiveParser;
+import org.apache.hadoop.hive.ql.parse.ParseDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the tables a DDL file creates, so that later tests can register them directly through the metastore API
+ * instead of running the DDL through the whole HiveServer2 compile path again.
+ * <p>
+ * The first execution of a DDL goes through SQL, the tables it created are then read back from the metastore and
+ * kept as templates for the rest of the JVM's life. DDL which is anything else than plain CREATE TABLE statements
+ * (CTAS, LIKE, temporary tables, variable substitution...) always goes through SQL.
+ */
+final class TableDefinitionCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TableDefinitionCache.class);
+
+    private static final String LAST_DDL_TIME = "transient_lastDdlTime";
+
+    private static final Map<String, Definition> DEFINITIONS = new ConcurrentHashMap<>();
+
+    private TableDefinitionCache() {
+        throw new UnsupportedOperationException("can not instantiate utility class");
+    }
+
+    static Definition get(final String ddl) {
+
+        return DEFINITIONS.computeIfAbsent(ddl, Definition::parse);
+    }
+
+
+    static final class Definition {
+
+        private final List<TableName> names;
+
+        private volatile List<Table> templates;
+        private volatile String templateLocation;
+
+        private Definition(final List<TableName> names) {
+            this.names = names;
+        }
+
+        boolean isSupported() {
+            return this.names != null;
+        }
+
+        boolean isCaptured() {
+            return this.templates != null;
+        }
+
+        /**
+         * Reads back the tables created by the SQL path, to be used as templates for {@link #register}.
+         */
+        void capture(final HuterContext ctx,
+                     final String location) throws Exception {
+
+            if (!this.isSupported() || this.isCaptured())
+                return;
+
+            final String database = ctx.getCurrentDatabase();
+            final IMetaStoreClient msc = ctx.getMetaStoreClient();
+            final List<Table> tables = new ArrayList<>();
+            for (final TableName name : this.names)
+                tables.add(msc.getTable(name.dbOr(database), name.name).deepCopy());
+
+            this.templateLocation = location;
+            this.templates = Collections.unmodifiableList(tables);
+        }
+
+        /**
+         * Creates the captured tables in the context's metastore, moving them to the given location if the
+         * originals were moved to the location of their test.
+         */
+        void register(final HuterContext ctx,
+                      final String location) throws Exception {
+
+            if (!this.isCaptured())
+                throw new IllegalStateException("table definition not captured yet");
+
+            final String database = ctx.getCurrentDatabase();
+            final IMetaStoreClient msc = ctx.getMetaStoreClient();
+            for (int i = 0; i < this.names.size(); i++) {
+                final TableName name = this.names.get(i);
+                final String db = name.dbOr(database);
+                if (name.ifNotExists && msc.tableExists(db, name.name)) {
+                    LOG.debug("table already exists, skipping: {}.{}", db, name.name);
+                    continue;
+                }
+
+                final Table table = this.instantiate(this.templates.get(i), location);
+                table.setDbName(db);
+                msc.createTable(table);
+            }
+        }
+
+        private Table instantiate(final Table template,
+                                  final String location) {
+
+            final Table table = template.deepCopy();
+            table.setCreateTime((int) (System.currentTimeMillis() / 1000));
+            if (table.getParameters() != null)
+                table.getParameters().remove(LAST_DDL_TIME);
+
+            final String originalLocation = table.getSd().getLocation();
+            if (originalLocation != null
+                    && stripFileScheme(originalLocation).equals(stripFileScheme(this.templateLocation)))
+                table.getSd().setLocation(location);
+            else
+                // Default location, let the metastore derive it from its own warehouse.
+                table.getSd().setLocation(null);
+
+            return table;
+        }
+
+        private static Definition parse(final String ddl) {
+
+            if (ddl.contains("${"))
+                return new Definition(null);
+
+            final List<TableName> names = new ArrayList<>();
+            final ParseDriver parseDriver = new ParseDriver();
+            for (final String statement : HuterContext.splitSemiColon(ddl)) {
+                final ASTNode root;
+                try {
+                    root = HuterAst.rootOf(parseDriver.parse(statement));
+                }
+                catch (final Exception e) {
+                    LOG.debug("could not parse ddl, not eligible for metastore fast path: {}", e.getMessage());
+                    return new Definition(null);
+                }
+
+                final TableName name = TableName.of(root);
+                if (name == null)
+                    return new Definition(null);
+
+                names.add(name);
+            }
+
+            return names.isEmpty()
+                    ? new Definition(null)
+                    : new Definition(Collections.unmodifiableList(names));
+        }
+
+        private static String stripFileScheme(final String location) {
+
+            String path = location;
+            if (path.startsWith("file:"))
+                path = path.substring("file:".length());
+            while (path.startsWith("//"))
+                path = path.substring(1);
+            while (path.endsWith("/") && path.length() > 1)
+                path = path.substring(0, path.length() - 1);
+            return path;
+        }
+
+    }
+
+    private static final class TableName {
+
+        private final String db;
+        private final String name;
+        private final boolean ifNotExists;
+
+        /**
+         * @param db null for unqualified names, which resolve to the current database of the executing session.
+         */
+        private TableName(final String db,
+                          final String name,
+                          final boolean ifNotExists) {
+            this.db = db;
+            this.name = name;
+            this.ifNotExists = ifNotExists;
+        }
+
+        private String dbOr(final String currentDatabase) {
+            return this.db == null ? currentDatabase : this.db;
+        }
+
+        /**
+         * @return null if the statement is not a plain CREATE TABLE.
+         */
+        private static TableName of(final ASTNode createTable) {
+
+            if (createTable.getType() != HiveParser.TOK_CREATETABLE)
+                return null;
+
+            ASTNode tabName = null;
+            boolean ifNotExists = false;
+            for (int i = 0; i < createTable.getChildCount(); i++) {
+                final ASTNode child = (ASTNode) createTable.getChild(i);
+                switch (child.getType()) {
+                    case HiveParser.TOK_TABNAME:
+                        tabName = child;
+                        break;
+
+                    case HiveParser.TOK_IFNOTEXISTS:
+                        ifNotExists = true;
+                        break;
+
+                    case HiveParser.TOK_LIKETABLE:
+                        if (child.getChildCount() > 0)
+                            return null;
+                        break;
+
+                    case HiveParser.TOK_QUERY:
+                    case HiveParser.KW_TEMPORARY:
+                        return null;
+
+                    default:
+                }
+            }
+
+            if (tabName == null)
+                return null;
+
+            if (tabName.getChildCount() == 1)
+                return new TableName(
+                        null,
+                        HuterAst.identifier(tabName, 0),
+                        ifNotExists
+                );
+            else if (tabName.getChildCount() == 2)
+                return new TableName(
+                        HuterAst.identifier(tabName, 0),
+                        HuterAst.identifier(tabName, 1),
+                        ifNotExists
+                );
+            else
+                return null;
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package io.koosha.huter.internal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JVM wide cache of file contents, validated against the file's modification time and size on every read.
+ */
+public final class FileContentCache implements PathToContentFun {
+
+    private static final FileContentCache INSTANCE = new FileContentCache();
+
+    public static FileContentCache getInstance() {
+        return INSTANCE;
+    }
+
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private FileContentCache() {
+    }
+
+    @Override
+    public String read(final Path path) throws IOException {
+
+        final Path key = path.toAbsolutePath().normalize();
+        final BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+
+        final Entry cached = this.entries.get(key);
+        if (cached != null
+                && cached.size == attributes.size()
+                && cached.modified.equals(attributes.lastModifiedTime())) {
+            this.hits.incrementAndGet();
+            return cached.content;
+        }
+
+        this.misses.incrementAndGet();
+        final String content = HuterFiles.readFile(key);
+        this.entries.put(key, new Entry(attributes.lastModifiedTime(), attributes.size(), content));
+        return content;
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public void clear() {
+        this.entries.clear();
+    }
+
+
+    private static final class Entry {
+
+        private final FileTime modified;
+        private final long size;
+        private final String content;
+
+        private Entry(final FileTime modified,
+                      final long size,
+                      final String content) {
+            this.modified = modified;
+            this.size = size;
+            this.content = content;
+        }
+
+    }
+
+}
@@ -0,0 +1,59 @@
+package io.koosha.huter.internal;
+
+import org.apache.hadoop.hive.ql.parse.ASTNode;
+import org.apache.hadoop.hive.ql.parse.BaseSemanticAnalyzer;
+import org.apache.hadoop.hive.ql.parse.HiveParser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class HuterAst {
+
+    private HuterAst() {
+        throw new UnsupportedOperationException("can not instantiate utility class");
+    }
+
+    /**
+     * Skips the token-less nodes the parser puts on top of a statement (nil and EOF wrappers).
+     */
+    public static ASTNode rootOf(ASTNode tree) {
+
+        while (tree.getToken() == null && tree.getChildCount() > 0)
+            tree = (ASTNode) tree.getChild(0);
+        return tree;
+    }
+
+    /**
+     * Unescaped, lower cased identifier at the given child index.
+     */
+    public static String identifier(final ASTNode node,
+                                    final int index) {
+
+        return BaseSemanticAnalyzer
+                .unescapeIdentifier(node.getChild(index).getText())
+                .toLowerCase();
+    }
+
+    /**
+     * All the TOK_TABNAME nodes of tables read by the statement (TOK_TABREF), including CTE references.
+     */
+    public static List<ASTNode> tableReferences(final ASTNode tree) {
+
+        final List<ASTNode> references = new ArrayList<>();
+        collectTableReferences(tree, references);
+        return references;
+    }
+
+    private static void collectTableReferences(final ASTNode node,
+                                               final List<ASTNode> references) {
+
+        if (node.getType() == HiveParser.TOK_TABREF
+                && node.getChildCount() > 0
+                && ((ASTNode) node.getChild(0)).getType() == HiveParser.TOK_TABNAME)
+            references.add((ASTNode) node.getChild(0));
+
+        for (int i = 0; i < node.getChildCount(); i++)
+            collectTableReferences((ASTNode) node.getChild(i), references);
+    }
+
+}
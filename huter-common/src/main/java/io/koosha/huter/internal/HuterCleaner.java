@@ -0,0 +1,143 @@
+package io.koosha.huter.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Takes directory deletion off the critical path: directories are renamed to a trash directory next to them, which
+ * is instant, and deleted by a background thread. Deletions still pending when the JVM exits are finished by a
+ * shutdown hook; trash left behind by a JVM killed before that is picked up by {@link #sweep(Path)}.
+ */
+public final class HuterCleaner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HuterCleaner.class);
+
+    /**
+     * Prefix of trash directories. Being hidden, Hive ignores them should they end up inside a table location.
+     */
+    public static final String TRASH_PREFIX = ".huter-trash-";
+
+    private static final HuterCleaner INSTANCE = new HuterCleaner();
+
+    public static HuterCleaner getInstance() {
+        return INSTANCE;
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "huter-cleaner");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private final Set<Path> pending = ConcurrentHashMap.newKeySet();
+
+    private HuterCleaner() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "huter-cleaner-drain"));
+    }
+
+    /**
+     * Moves the given directory out of the way and deletes it in the background. Falls back to deleting it right away
+     * if it can not be renamed.
+     */
+    public void discard(final Path dir) throws IOException {
+
+        if (!Files.exists(dir))
+            return;
+
+        final Path trash = dir.resolveSibling(TRASH_PREFIX + UUID.randomUUID());
+        try {
+            Files.move(dir, trash, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (final IOException | UnsupportedOperationException e) {
+            LOG.debug("could not move to trash, deleting in place, dir={} error={}", dir, e.toString());
+            HuterFiles.deleteDir(dir);
+            return;
+        }
+
+        this.pending.add(trash);
+        this.executor.execute(() -> this.delete(trash));
+    }
+
+    /**
+     * Deletes, in the background, trash directories left anywhere under the given root.
+     */
+    public void sweep(final Path root) {
+
+        this.executor.execute(() -> {
+            if (!Files.isDirectory(root))
+                return;
+
+            try (final HuterTrace.Span ignored = HuterTrace.span("cleanup", "sweep")) {
+                this.sweep0(root);
+            }
+        });
+    }
+
+    private void sweep0(final Path root) {
+
+        final List<Path> found = new ArrayList<>();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir,
+                                                         final BasicFileAttributes attrs) {
+                    if (dir.getFileName() != null && dir.getFileName().toString().startsWith(TRASH_PREFIX)) {
+                        found.add(dir);
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (final IOException e) {
+            LOG.warn("could not sweep trash under={}", root, e);
+        }
+
+        this.pending.addAll(found);
+        found.forEach(this::delete);
+    }
+
+    private void delete(final Path trash) {
+
+        try (final HuterTrace.Span ignored = HuterTrace.span("cleanup", "delete trash")) {
+            HuterFiles.deleteDir(trash);
+            this.pending.remove(trash);
+        }
+        catch (final IOException e) {
+            LOG.warn("could not delete trash={}", trash, e);
+        }
+    }
+
+    /**
+     * Deletes what the background thread did not get to, on the exiting thread: daemon threads do not outlive the
+     * JVM.
+     */
+    private void drain() {
+
+        this.executor.shutdownNow();
+        for (final Path trash : this.pending)
+            try {
+                HuterFiles.deleteDir(trash);
+            }
+            catch (final IOException e) {
+                LOG.warn("could not delete trash={}", trash, e);
+            }
+    }
+
+}
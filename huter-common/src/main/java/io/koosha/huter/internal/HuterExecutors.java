@@ -0,0 +1,64 @@
+package io.koosha.huter.internal;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JVM wide executors for asynchronous work, mostly waiting on Hive. Workers are virtual threads when the JDK has them
+ * (21+), daemon platform threads otherwise.
+ */
+public final class HuterExecutors {
+
+    private static final ExecutorService WORKERS = newWorkers();
+
+    private static final ScheduledExecutorService SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("huter-async-scheduler"));
+
+    private HuterExecutors() {
+        throw new UnsupportedOperationException("can not instantiate utility class");
+    }
+
+    public static ExecutorService workers() {
+        return WORKERS;
+    }
+
+    /**
+     * Runs the given task on a worker after the given delay. The scheduler thread only hands tasks over, it never runs
+     * them.
+     */
+    public static void schedule(final Runnable task,
+                                final long delayMillis) {
+
+        SCHEDULER.schedule(() -> WORKERS.execute(task), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Daemon threads named after the given name and a counter.
+     */
+    public static ThreadFactory daemonThreadFactory(final String name) {
+
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static ExecutorService newWorkers() {
+
+        try {
+            final Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        }
+        catch (final ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(daemonThreadFactory("huter-async"));
+        }
+    }
+
+}
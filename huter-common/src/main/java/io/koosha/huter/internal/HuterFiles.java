@@ -4,14 +4,17 @@ import org.apache.commons.io.FileUtils;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Collections;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public final class HuterFiles {
@@ -42,29 +45,32 @@ public final class HuterFiles {
 
     public static void deleteDir(final Path dir) throws IOException {
 
-        List<Path> list;
-        try (final Stream<Path> paths = Files.list(dir)) {
-            list = paths.collect(Collectors.toList());
-        }
-        catch (final NoSuchFileException ignore) {
-            list = Collections.emptyList();
-        }
-
-        for (final Path toDelete : list) {
-            if (Files.isDirectory(toDelete)) {
-                deleteDir(toDelete);
-            }
-            else {
-                try {
-                    Files.delete(toDelete);
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file,
+                                                 final BasicFileAttributes attrs) throws IOException {
+                    Files.deleteIfExists(file);
+                    return FileVisitResult.CONTINUE;
                 }
-                catch (final NoSuchFileException ignore) {
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file,
+                                                       final IOException exc) throws IOException {
+                    if (exc instanceof NoSuchFileException)
+                        return FileVisitResult.CONTINUE;
+                    throw exc;
                 }
-            }
-        }
 
-        try {
-            Files.delete(dir);
+                @Override
+                public FileVisitResult postVisitDirectory(final Path d,
+                                                          final IOException exc) throws IOException {
+                    if (exc != null && !(exc instanceof NoSuchFileException))
+                        throw exc;
+                    Files.deleteIfExists(d);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
         }
         catch (final NoSuchFileException ignore) {
         }
@@ -75,12 +81,52 @@ public final class HuterFiles {
         if (Files.isRegularFile(path))
             throw new IOException("attempting to delete a regular file through recreateDir(), path=" + path);
 
+        // An empty directory is as good as a new one, anything else is moved away and deleted in the background.
+        if (Files.isDirectory(path) && isEmpty(path))
+            return;
         if (Files.exists(path))
-            deleteDir(path);
+            HuterCleaner.getInstance().discard(path);
 
         ensureDirectories(path);
     }
 
+    private static boolean isEmpty(final Path dir) throws IOException {
+
+        try (final DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            return !entries.iterator().hasNext();
+        }
+    }
+
+    /**
+     * Recreates the tree of the source directory under the target directory, hard linking files when the file system
+     * allows it and copying them otherwise. Hive never modifies a data file in place, so linked files are safe.
+     */
+    public static void linkOrCopyTree(final Path source,
+                                      final Path target) throws IOException {
+
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir,
+                                                     final BasicFileAttributes attrs) throws IOException {
+                ensureDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file,
+                                             final BasicFileAttributes attrs) throws IOException {
+                final Path dest = target.resolve(source.relativize(file).toString());
+                try {
+                    Files.createLink(dest, file);
+                }
+                catch (final IOException | UnsupportedOperationException e) {
+                    Files.copy(file, dest, StandardCopyOption.REPLACE_EXISTING);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
     public static void ensureDirectories(final Path path) throws IOException {
 
         if (!Files.isDirectory(path))
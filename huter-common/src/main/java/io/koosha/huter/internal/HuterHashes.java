@@ -0,0 +1,38 @@
+package io.koosha.huter.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public final class HuterHashes {
+
+    private HuterHashes() {
+        throw new UnsupportedOperationException("can not instantiate utility class");
+    }
+
+    /**
+     * Hex encoded SHA-256 of the given strings, each one terminated so that moving text between them changes the hash.
+     */
+    public static String sha256(final String... contents) {
+
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (final NoSuchAlgorithmException e) {
+            // Can't happen, every JVM must support SHA-256.
+            throw new IllegalStateException(e);
+        }
+
+        for (final String content : contents) {
+            digest.update(content.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        for (final byte b : digest.digest())
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,101 @@
+package io.koosha.huter.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency distribution in the manner of HdrHistogram: log-linear buckets, each power of two split into
+ * {@link #SUB_BUCKETS} linear sub-buckets, so that any recorded value is reported within ~3% of itself, whatever its
+ * magnitude, in a fixed ~15KB. Recording is lock free and allocation free.
+ * <p>
+ * Values are microseconds. Reads are not atomic with respect to concurrent recording (or {@link #reset()}), which is
+ * fine for monitoring.
+ */
+public final class HuterHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_SHIFT = Long.SIZE - (SUB_BUCKET_BITS + 1);
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_SHIFT + 2) * SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(final long micros) {
+
+        final long value = Math.max(0, micros);
+        this.counts.incrementAndGet(index(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        this.min.accumulateAndGet(value, Math::min);
+        this.max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getMin() {
+        return this.count.get() == 0 ? 0 : this.min.get();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    public double getMean() {
+        final long n = this.count.get();
+        return n == 0 ? 0 : (double) this.sum.get() / n;
+    }
+
+    /**
+     * @param percentile 0 to 100.
+     * @return the highest value equivalent (same bucket) to the value at the given percentile, 0 if nothing is
+     * recorded.
+     */
+    public long getPercentile(final double percentile) {
+
+        final long n = this.count.get();
+        if (n == 0)
+            return 0;
+
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < this.counts.length(); i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank)
+                return Math.min(highestEquivalent(i), this.max.get());
+        }
+        return this.max.get();
+    }
+
+    public void reset() {
+
+        for (int i = 0; i < this.counts.length(); i++)
+            this.counts.set(i, 0);
+        this.count.set(0);
+        this.sum.set(0);
+        this.min.set(Long.MAX_VALUE);
+        this.max.set(0);
+    }
+
+    /**
+     * Values below 2 * {@link #SUB_BUCKETS} get a bucket each; above, the value is shifted right until it fits in
+     * [{@link #SUB_BUCKETS}, 2 * {@link #SUB_BUCKETS}), the shift selecting the group of buckets.
+     */
+    private static int index(final long value) {
+
+        final int shift = Math.max(0, Long.SIZE - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS + 1));
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long highestEquivalent(final int index) {
+
+        final int shift = index < 2 * SUB_BUCKETS ? 0 : index / SUB_BUCKETS - 1;
+        final long top = index - (long) shift * SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+}
@@ -0,0 +1,367 @@
+package io.koosha.huter.internal;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON writer and reader, enough for exchanging requests and results with clients without depending on the
+ * JSON library of whichever Hive version is on the class path.
+ * <p>
+ * Written: maps (keys as strings), collections, object arrays, strings, finite numbers, booleans and null; anything
+ * else as its string representation. Read: objects as {@link LinkedHashMap}, arrays as {@link ArrayList}, integral
+ * numbers as {@link Long}, other numbers as {@link Double}.
+ * <p>
+ * Values JSON numbers can not carry exactly are written as tagged objects, and read back as such: decimals
+ * ({@link BigDecimal}, Hive's decimals) as {"$decimal": "1.10"}, keeping their digits and scale, and NaN and infinite
+ * doubles and floats as {"$float": "NaN" | "Infinity" | "-Infinity"}, and byte arrays (BINARY cells) as
+ * {"$binary": "<base64>"}. Clients decode them too (conftest.py).
+ */
+public final class HuterJson {
+
+    static final String DECIMAL_TAG = "$decimal";
+    static final String FLOAT_TAG = "$float";
+    static final String BINARY_TAG = "$binary";
+
+    private HuterJson() {
+        throw new UnsupportedOperationException("can not instantiate utility class");
+    }
+
+    public static String write(final Object value) {
+
+        final StringBuilder sb = new StringBuilder();
+        write(sb, value);
+        return sb.toString();
+    }
+
+    public static Object read(final String json) {
+
+        final Reader reader = new Reader(json);
+        final Object value = reader.value();
+        reader.skipWhitespace();
+        if (reader.pos != json.length())
+            throw reader.error("trailing content");
+        return value;
+    }
+
+    private static void write(final StringBuilder sb,
+                              final Object value) {
+
+        if (value == null) {
+            sb.append("null");
+        }
+        else if (value instanceof Boolean) {
+            sb.append(value);
+        }
+        else if (value instanceof byte[]) {
+            writeTagged(sb, BINARY_TAG, Base64.getEncoder().encodeToString((byte[]) value));
+        }
+        else if (value instanceof BigDecimal || isHiveDecimal(value)) {
+            writeTagged(sb, DECIMAL_TAG, value.toString());
+        }
+        else if (value instanceof Number && isFinite((Number) value)) {
+            sb.append(value);
+        }
+        else if (value instanceof Number) {
+            writeTagged(sb, FLOAT_TAG, value.toString());
+        }
+        else if (value instanceof Map) {
+            sb.append('{');
+            boolean first = true;
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first)
+                    sb.append(',');
+                first = false;
+                writeString(sb, String.valueOf(entry.getKey()));
+                sb.append(':');
+                write(sb, entry.getValue());
+            }
+            sb.append('}');
+        }
+        else if (value instanceof Collection || value instanceof Object[]) {
+            final Iterable<?> items = value instanceof Collection
+                    ? (Collection<?>) value
+                    : Arrays.asList((Object[]) value);
+            sb.append('[');
+            boolean first = true;
+            for (final Object item : items) {
+                if (!first)
+                    sb.append(',');
+                first = false;
+                write(sb, item);
+            }
+            sb.append(']');
+        }
+        else {
+            writeString(sb, value.toString());
+        }
+    }
+
+    private static void writeTagged(final StringBuilder sb,
+                                    final String tag,
+                                    final String value) {
+
+        sb.append('{');
+        writeString(sb, tag);
+        sb.append(':');
+        writeString(sb, value);
+        sb.append('}');
+    }
+
+    /**
+     * By name, not to load Hive for every client of this class.
+     */
+    private static boolean isHiveDecimal(final Object value) {
+
+        final String name = value.getClass().getName();
+        return "org.apache.hadoop.hive.common.type.HiveDecimal".equals(name)
+                || "org.apache.hadoop.hive.serde2.io.HiveDecimalWritable".equals(name);
+    }
+
+    private static boolean isFinite(final Number number) {
+
+        if (number instanceof Double)
+            return !((Double) number).isNaN() && !((Double) number).isInfinite();
+        if (number instanceof Float)
+            return !((Float) number).isNaN() && !((Float) number).isInfinite();
+        return true;
+    }
+
+    private static void writeString(final StringBuilder sb,
+                                    final String value) {
+
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+
+    private static final class Reader {
+
+        private final String json;
+        private int pos;
+
+        private Reader(final String json) {
+            this.json = json;
+        }
+
+        private Object value() {
+
+            this.skipWhitespace();
+            if (this.pos >= this.json.length())
+                throw this.error("unexpected end");
+
+            final char c = this.json.charAt(this.pos);
+            switch (c) {
+                case '{':
+                    return this.object();
+                case '[':
+                    return this.array();
+                case '"':
+                    return this.string();
+                case 't':
+                    return this.literal("true", Boolean.TRUE);
+                case 'f':
+                    return this.literal("false", Boolean.FALSE);
+                case 'n':
+                    return this.literal("null", null);
+                default:
+                    return this.number();
+            }
+        }
+
+        private Object object() {
+
+            final Map<String, Object> map = this.map();
+            if (map.size() == 1 && map.get(DECIMAL_TAG) instanceof String)
+                return new BigDecimal((String) map.get(DECIMAL_TAG));
+            if (map.size() == 1 && map.get(FLOAT_TAG) instanceof String)
+                return Double.valueOf((String) map.get(FLOAT_TAG));
+            if (map.size() == 1 && map.get(BINARY_TAG) instanceof String)
+                return Base64.getDecoder().decode((String) map.get(BINARY_TAG));
+            return map;
+        }
+
+        private Map<String, Object> map() {
+
+            final Map<String, Object> map = new LinkedHashMap<>();
+            this.pos++;
+            this.skipWhitespace();
+            if (this.peek() == '}') {
+                this.pos++;
+                return map;
+            }
+
+            while (true) {
+                this.skipWhitespace();
+                if (this.peek() != '"')
+                    throw this.error("expecting key");
+                final String key = this.string();
+                this.skipWhitespace();
+                this.expect(':');
+                map.put(key, this.value());
+                this.skipWhitespace();
+                if (this.peek() == ',') {
+                    this.pos++;
+                    continue;
+                }
+                this.expect('}');
+                return map;
+            }
+        }
+
+        private List<Object> array() {
+
+            final List<Object> list = new ArrayList<>();
+            this.pos++;
+            this.skipWhitespace();
+            if (this.peek() == ']') {
+                this.pos++;
+                return list;
+            }
+
+            while (true) {
+                list.add(this.value());
+                this.skipWhitespace();
+                if (this.peek() == ',') {
+                    this.pos++;
+                    continue;
+                }
+                this.expect(']');
+                return list;
+            }
+        }
+
+        private String string() {
+
+            final StringBuilder sb = new StringBuilder();
+            this.pos++;
+            while (true) {
+                if (this.pos >= this.json.length())
+                    throw this.error("unterminated string");
+
+                final char c = this.json.charAt(this.pos++);
+                if (c == '"')
+                    return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+
+                if (this.pos >= this.json.length())
+                    throw this.error("unterminated string");
+                final char escaped = this.json.charAt(this.pos++);
+                switch (escaped) {
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        if (this.pos + 4 > this.json.length())
+                            throw this.error("bad unicode escape");
+                        sb.append((char) Integer.parseInt(this.json.substring(this.pos, this.pos + 4), 16));
+                        this.pos += 4;
+                        break;
+                    default:
+                        sb.append(escaped);
+                }
+            }
+        }
+
+        private Object number() {
+
+            final int start = this.pos;
+            while (this.pos < this.json.length() && "+-0123456789.eE".indexOf(this.json.charAt(this.pos)) >= 0)
+                this.pos++;
+
+            final String number = this.json.substring(start, this.pos);
+            if (number.isEmpty())
+                throw this.error("unexpected character");
+
+            try {
+                return number.contains(".") || number.contains("e") || number.contains("E")
+                        ? (Object) Double.parseDouble(number)
+                        : (Object) Long.parseLong(number);
+            }
+            catch (final NumberFormatException e) {
+                throw this.error("bad number: " + number);
+            }
+        }
+
+        private Object literal(final String literal,
+                               final Object value) {
+
+            if (!this.json.startsWith(literal, this.pos))
+                throw this.error("unexpected character");
+            this.pos += literal.length();
+            return value;
+        }
+
+        private char peek() {
+
+            if (this.pos >= this.json.length())
+                throw this.error("unexpected end");
+            return this.json.charAt(this.pos);
+        }
+
+        private void expect(final char c) {
+
+            if (this.peek() != c)
+                throw this.error("expecting '" + c + "'");
+            this.pos++;
+        }
+
+        private void skipWhitespace() {
+
+            while (this.pos < this.json.length() && Character.isWhitespace(this.json.charAt(this.pos)))
+                this.pos++;
+        }
+
+        private IllegalArgumentException error(final String message) {
+
+            return new IllegalArgumentException("invalid json, " + message + " at=" + this.pos);
+        }
+
+    }
+
+}
@@ -0,0 +1,338 @@
+package io.koosha.huter.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counters and latency distributions of the JVM, as platform MBeans under the {@value #DOMAIN} domain, for
+ * long living JVMs (huterd, huterpool engines, py4j gateways) to be watched with jconsole, VisualVM or any JMX
+ * client while they run:
+ * <ul>
+ * <li>{@code type=Counters}: active sessions, queued, running, passed and failed tests, cache hit ratios.</li>
+ * <li>{@code type=Latency,name=...}: one {@link HuterHistogram} per phase ({@code phase.metastoreInit},
+ * {@code phase.sessionOpen}, {@code phase.setup}, {@code phase.query}, {@code phase.fetch}), per component
+ * type ({@code component.table}...) and of Tez DAG runs ({@code dag.tez}), created on first use.</li>
+ * </ul>
+ * Enabled unless {@link #JMX_PROPERTY} is false; failing to register only disables the MBeans, recording goes on.
+ */
+public final class HuterMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HuterMetrics.class);
+
+    /**
+     * Register the MBeans.
+     */
+    public static final String JMX_PROPERTY = "huter.jmx";
+
+    public static final String DOMAIN = "io.koosha.huter";
+
+    private static final boolean ENABLED = HuterProperties.getBoolean(JMX_PROPERTY, true);
+
+    private static final AtomicLong ACTIVE_SESSIONS = new AtomicLong();
+    private static final AtomicLong QUEUED_TESTS = new AtomicLong();
+    private static final AtomicLong RUNNING_TESTS = new AtomicLong();
+    private static final AtomicLong PASSED_TESTS = new AtomicLong();
+    private static final AtomicLong FAILED_TESTS = new AtomicLong();
+    private static final AtomicLong TABLE_DEFINITION_HITS = new AtomicLong();
+    private static final AtomicLong TABLE_DEFINITION_MISSES = new AtomicLong();
+
+    private static final Map<String, HuterHistogram> LATENCIES = new ConcurrentHashMap<>();
+
+    static {
+        if (ENABLED)
+            register("type=Counters", new Counters());
+    }
+
+    private HuterMetrics() {
+        throw new UnsupportedOperationException("can not instantiate utility class");
+    }
+
+    /**
+     * Starts timing, recorded in the latency distribution of the given name when closed.
+     */
+    public static Timer time(final String name) {
+
+        return new Timer(latency(name), System.nanoTime());
+    }
+
+    /**
+     * Records a duration measured elsewhere, e.g. by Hive's perf logger.
+     */
+    public static void record(final String name,
+                              final long micros) {
+
+        latency(name).record(micros);
+    }
+
+    public static void sessionOpened() {
+        ACTIVE_SESSIONS.incrementAndGet();
+    }
+
+    public static void sessionClosed() {
+        ACTIVE_SESSIONS.decrementAndGet();
+    }
+
+    /**
+     * @param delta number of test scripts planned (positive) or taken out of the queue to run (negative), whatever
+     *              number of parameter sets each is run with.
+     */
+    public static void testsQueued(final int delta) {
+        QUEUED_TESTS.addAndGet(delta);
+    }
+
+    public static void testStarted() {
+        RUNNING_TESTS.incrementAndGet();
+    }
+
+    public static void testFinished(final boolean passed) {
+        RUNNING_TESTS.decrementAndGet();
+        (passed ? PASSED_TESTS : FAILED_TESTS).incrementAndGet();
+    }
+
+    public static void tableDefinitionLookup(final boolean hit) {
+        (hit ? TABLE_DEFINITION_HITS : TABLE_DEFINITION_MISSES).incrementAndGet();
+    }
+
+    private static HuterHistogram latency(final String name) {
+
+        final HuterHistogram existing = LATENCIES.get(name);
+        if (existing != null)
+            return existing;
+
+        return LATENCIES.computeIfAbsent(name, it -> {
+            final HuterHistogram histogram = new HuterHistogram();
+            if (ENABLED)
+                register("type=Latency,name=" + it.replaceAll("[^A-Za-z0-9._-]", "_"), new Latency(histogram));
+            return histogram;
+        });
+    }
+
+    private static void register(final String properties,
+                                 final Object mbean) {
+
+        final String name = DOMAIN + ":" + properties;
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName(name);
+            // Another class loader of the JVM (e.g. a second engine) might have got there first.
+            if (!server.isRegistered(objectName))
+                server.registerMBean(mbean, objectName);
+        }
+        catch (final Exception | LinkageError e) {
+            LOG.warn("could not register mbean={}", name, e);
+        }
+    }
+
+    private static double ratio(final long hits,
+                                final long misses) {
+
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    private static double millis(final double micros) {
+
+        return micros / 1000;
+    }
+
+
+    public static final class Timer implements AutoCloseable {
+
+        private final HuterHistogram histogram;
+        private final long start;
+
+        private Timer(final HuterHistogram histogram,
+                      final long start) {
+            this.histogram = histogram;
+            this.start = start;
+        }
+
+        @Override
+        public void close() {
+            this.histogram.record((System.nanoTime() - this.start) / 1000);
+        }
+
+    }
+
+    public interface CountersMXBean {
+
+        long getActiveSessions();
+
+        long getQueuedTests();
+
+        long getRunningTests();
+
+        long getPassedTests();
+
+        long getFailedTests();
+
+        long getFileCacheHits();
+
+        long getFileCacheMisses();
+
+        double getFileCacheHitRatio();
+
+        long getTableDefinitionHits();
+
+        long getTableDefinitionMisses();
+
+        double getTableDefinitionHitRatio();
+
+    }
+
+    private static final class Counters implements CountersMXBean {
+
+        @Override
+        public long getActiveSessions() {
+            return ACTIVE_SESSIONS.get();
+        }
+
+        @Override
+        public long getQueuedTests() {
+            return QUEUED_TESTS.get();
+        }
+
+        @Override
+        public long getRunningTests() {
+            return RUNNING_TESTS.get();
+        }
+
+        @Override
+        public long getPassedTests() {
+            return PASSED_TESTS.get();
+        }
+
+        @Override
+        public long getFailedTests() {
+            return FAILED_TESTS.get();
+        }
+
+        @Override
+        public long getFileCacheHits() {
+            return FileContentCache.getInstance().getHits();
+        }
+
+        @Override
+        public long getFileCacheMisses() {
+            return FileContentCache.getInstance().getMisses();
+        }
+
+        @Override
+        public double getFileCacheHitRatio() {
+            return ratio(this.getFileCacheHits(), this.getFileCacheMisses());
+        }
+
+        @Override
+        public long getTableDefinitionHits() {
+            return TABLE_DEFINITION_HITS.get();
+        }
+
+        @Override
+        public long getTableDefinitionMisses() {
+            return TABLE_DEFINITION_MISSES.get();
+        }
+
+        @Override
+        public double getTableDefinitionHitRatio() {
+            return ratio(this.getTableDefinitionHits(), this.getTableDefinitionMisses());
+        }
+
+    }
+
+    /**
+     * Durations in milliseconds, percentiles accurate to ~3%.
+     */
+    public interface LatencyMXBean {
+
+        long getCount();
+
+        double getMinMillis();
+
+        double getMeanMillis();
+
+        double getP50Millis();
+
+        double getP90Millis();
+
+        double getP99Millis();
+
+        double getP999Millis();
+
+        double getMaxMillis();
+
+        /**
+         * @param percentile 0 to 100.
+         */
+        double percentileMillis(double percentile);
+
+        void reset();
+
+    }
+
+    private static final class Latency implements LatencyMXBean {
+
+        private final HuterHistogram histogram;
+
+        private Latency(final HuterHistogram histogram) {
+            this.histogram = histogram;
+        }
+
+        @Override
+        public long getCount() {
+            return this.histogram.getCount();
+        }
+
+        @Override
+        public double getMinMillis() {
+            return millis(this.histogram.getMin());
+        }
+
+        @Override
+        public double getMeanMillis() {
+            return millis(this.histogram.getMean());
+        }
+
+        @Override
+        public double getP50Millis() {
+            return this.percentileMillis(50);
+        }
+
+        @Override
+        public double getP90Millis() {
+            return this.percentileMillis(90);
+        }
+
+        @Override
+        public double getP99Millis() {
+            return this.percentileMillis(99);
+        }
+
+        @Override
+        public double getP999Millis() {
+            return this.percentileMillis(99.9);
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return millis(this.histogram.getMax());
+        }
+
+        @Override
+        public double percentileMillis(final double percentile) {
+            return millis(this.histogram.getPercentile(percentile));
+        }
+
+        @Override
+        public void reset() {
+            this.histogram.reset();
+        }
+
+    }
+
+}
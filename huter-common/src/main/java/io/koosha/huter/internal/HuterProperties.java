@@ -0,0 +1,74 @@
+package io.koosha.huter.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tuning knobs, read from JVM system properties (-Dhuter.something=value).
+ */
+public final class HuterProperties {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HuterProperties.class);
+
+    private HuterProperties() {
+        throw new UnsupportedOperationException("can not instantiate utility class");
+    }
+
+    public static String getString(final String name,
+                                   final String defaultValue) {
+
+        final String value = System.getProperty(name);
+        return value == null || value.trim().isEmpty()
+                ? defaultValue
+                : value.trim();
+    }
+
+    public static boolean getBoolean(final String name,
+                                     final boolean defaultValue) {
+
+        final String value = getString(name, null);
+        if (value == null)
+            return defaultValue;
+
+        switch (value.toLowerCase()) {
+            case "true":
+            case "yes":
+            case "1":
+                return true;
+
+            case "false":
+            case "no":
+            case "0":
+                return false;
+
+            default:
+                LOG.warn("invalid boolean value for property={}, using default={}, value={}",
+                        name, defaultValue, value);
+                return defaultValue;
+        }
+    }
+
+    public static int getInt(final String name,
+                             final int defaultValue) {
+
+        return (int) getLong(name, defaultValue);
+    }
+
+    public static long getLong(final String name,
+                               final long defaultValue) {
+
+        final String value = getString(name, null);
+        if (value == null)
+            return defaultValue;
+
+        try {
+            return Long.parseLong(value);
+        }
+        catch (final NumberFormatException e) {
+            LOG.warn("invalid numeric value for property={}, using default={}, value={}",
+                    name, defaultValue, value);
+            return defaultValue;
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+package io.koosha.huter.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Timeline of what each thread of the JVM did, as a trace event JSON file viewable in chrome://tracing or Perfetto.
+ * Spans of the same thread nest by time: test, phase, statement, Tez DAG. Disabled unless {@link #TRACE_PROPERTY}
+ * is set, in which case spans cost a few allocations each.
+ * <p>
+ * The file is written in the JSON array format, of which the closing bracket is optional: it is truncated on the first
+ * {@link #flush()} of the JVM and later flushes append the events recorded since, which are then dropped from memory.
+ * Flushed every {@link #FLUSH_EVERY} events, on {@link #flush()} and when the JVM exits. Each JVM is a process of its
+ * own in the trace; for several JVMs (huterpool engines, pytest workers) put {pid} in the file name and load the files
+ * together.
+ */
+public final class HuterTrace {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HuterTrace.class);
+
+    /**
+     * Trace file to write, tracing is disabled if not set. {pid} is replaced with the process id.
+     */
+    public static final String TRACE_PROPERTY = "huter.trace";
+
+    private static final int FLUSH_EVERY = 10_000;
+
+    private static final long ORIGIN_NANOS = System.nanoTime();
+    private static final long ORIGIN_EPOCH_MILLIS = System.currentTimeMillis();
+    private static final String PID = ManagementFactory.getRuntimeMXBean().getName().split("@", 2)[0];
+    private static final long PID_NUMBER = pidNumber();
+    private static final Path FILE = file();
+
+    private static final Queue<Map<String, Object>> EVENTS = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger PENDING = new AtomicInteger();
+    private static final Map<Long, String> THREADS = new ConcurrentHashMap<>();
+    // Guarded by the class lock.
+    private static final Set<Long> WRITTEN_THREADS = new HashSet<>();
+    private static boolean started;
+    private static final Span NOOP = new Span(null, null, 0);
+
+    static {
+        if (FILE != null)
+            Runtime.getRuntime().addShutdownHook(new Thread(HuterTrace::flush, "huter-trace-flush"));
+    }
+
+    private HuterTrace() {
+        throw new UnsupportedOperationException("can not instantiate utility class");
+    }
+
+    public static boolean isEnabled() {
+        return FILE != null;
+    }
+
+    /**
+     * Starts a span on the calling thread, ending when closed, on the same thread.
+     */
+    public static Span span(final String category,
+                            final String name) {
+
+        return FILE == null
+                ? NOOP
+                : new Span(category, name, System.nanoTime());
+    }
+
+    /**
+     * Records a span of the calling thread of which only the wall clock times are known, e.g. from Hive's perf
+     * logger.
+     */
+    public static void complete(final String category,
+                                final String name,
+                                final long startEpochMillis,
+                                final long endEpochMillis) {
+
+        if (FILE == null || startEpochMillis <= 0 || endEpochMillis < startEpochMillis)
+            return;
+
+        record(category, name, (startEpochMillis - ORIGIN_EPOCH_MILLIS) * 1000,
+                (endEpochMillis - startEpochMillis) * 1000);
+    }
+
+    /**
+     * Appends everything recorded since the last flush.
+     */
+    public static synchronized void flush() {
+
+        if (FILE == null)
+            return;
+
+        final List<Map<String, Object>> events = new ArrayList<>();
+        if (!started)
+            events.add(metadata("process_name", null, "huter " + PID));
+        THREADS.forEach((tid, name) -> {
+            if (WRITTEN_THREADS.add(tid))
+                events.add(metadata("thread_name", tid, name));
+        });
+        for (Map<String, Object> event = EVENTS.poll(); event != null; event = EVENTS.poll()) {
+            PENDING.decrementAndGet();
+            events.add(event);
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        for (final Map<String, Object> event : events)
+            sb.append(started || sb.length() > 0 ? ",\n" : "[\n").append(HuterJson.write(event));
+
+        try {
+            if (FILE.getParent() != null)
+                HuterFiles.ensureDirectories(FILE.getParent());
+            if (started)
+                Files.write(FILE, sb.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            else
+                Files.write(FILE, sb.toString().getBytes(StandardCharsets.UTF_8));
+            started = true;
+            LOG.debug("trace written, events={} file={}", events.size(), FILE);
+        }
+        catch (final IOException e) {
+            LOG.warn("could not write trace to={}", FILE, e);
+        }
+    }
+
+    private static void record(final String category,
+                               final String name,
+                               final long tsMicros,
+                               final long durMicros) {
+
+        final Thread thread = Thread.currentThread();
+        THREADS.putIfAbsent(thread.getId(), thread.getName());
+
+        final Map<String, Object> event = new LinkedHashMap<>();
+        event.put("name", name);
+        event.put("cat", category);
+        event.put("ph", "X");
+        event.put("ts", tsMicros);
+        event.put("dur", durMicros);
+        event.put("pid", PID_NUMBER);
+        event.put("tid", thread.getId());
+        EVENTS.add(event);
+
+        if (PENDING.incrementAndGet() >= FLUSH_EVERY)
+            flush();
+    }
+
+    private static Map<String, Object> metadata(final String kind,
+                                                final Long tid,
+                                                final String name) {
+
+        final Map<String, Object> args = new LinkedHashMap<>();
+        args.put("name", name);
+
+        final Map<String, Object> event = new LinkedHashMap<>();
+        event.put("name", kind);
+        event.put("ph", "M");
+        event.put("pid", PID_NUMBER);
+        if (tid != null)
+            event.put("tid", tid);
+        event.put("args", args);
+        return event;
+    }
+
+    private static long pidNumber() {
+
+        try {
+            return Long.parseLong(PID);
+        }
+        catch (final NumberFormatException e) {
+            return PID.hashCode() & Integer.MAX_VALUE;
+        }
+    }
+
+    private static Path file() {
+
+        final String file = HuterProperties.getString(TRACE_PROPERTY, null);
+        return file == null
+                ? null
+                : Paths.get(file.replace("{pid}", PID)).toAbsolutePath();
+    }
+
+
+    public static final class Span implements AutoCloseable {
+
+        private final String category;
+        private final String name;
+        private final long start;
+
+        private Span(final String category,
+                     final String name,
+                     final long start) {
+            this.category = category;
+            this.name = name;
+            this.start = start;
+        }
+
+        @Override
+        public void close() {
+
+            if (this.name == null)
+                return;
+
+            record(this.category, this.name, (this.start - ORIGIN_NANOS) / 1000, (System.nanoTime() - this.start) / 1000);
+        }
+
+    }
+
+}
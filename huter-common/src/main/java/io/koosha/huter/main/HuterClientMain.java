@@ -0,0 +1,166 @@
+package io.koosha.huter.main;
+
+import io.koosha.huter.internal.HuterJson;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thin client of {@link HuterDaemonMain}, kept free of Hive and logging so that it starts in a fraction of a second.
+ * <p>
+ * Usage: huterc --ping | --stop | --repo DIR | [args of {@link HuterMain}]. Exits with 0 if all ok, 1 if tests
+ * failed, 3 if the daemon could not be reached.
+ * <p>
+ * Paths given as arguments are made absolute before being sent, as the daemon has a working directory of its own.
+ */
+public final class HuterClientMain {
+
+    /**
+     * Options of {@link HuterMain} taking a path, long and short name.
+     */
+    private static final List<String> PATH_OPTIONS = Arrays.asList(
+            "--root", "-r",
+            "--table-definitions-root", "-d",
+            "--log-dir", "-g",
+            "--query-file", "-Q",
+            "--test-query-file", "-T",
+            "--setup-file", "-S",
+            "--component-file", "-L",
+            "--param-file", "-P"
+    );
+
+    private HuterClientMain() {
+        throw new UnsupportedOperationException("utility class can not be instantiated.");
+    }
+
+
+    public static void main(final String... args) {
+
+        final Map<String, Object> request = new LinkedHashMap<>();
+        if (args.length == 1 && "--ping".equals(args[0]))
+            request.put("command", "ping");
+        else if (args.length == 1 && "--stop".equals(args[0]))
+            request.put("command", "stop");
+        else if (args.length == 2 && "--repo".equals(args[0]))
+            request.put("repo", absolute(args[1]));
+        else
+            request.put("args", absolutePaths(args));
+
+        final Map<?, ?> response;
+        try {
+            response = send(daemonFile(), request);
+        }
+        catch (final IOException | IllegalArgumentException e) {
+            System.err.println("could not reach huterd: " + e.getMessage());
+            System.exit(3);
+            throw new IllegalStateException();
+        }
+
+        final Object errors = response.get("errors");
+        if (errors instanceof List && !((List<?>) errors).isEmpty()) {
+            System.err.println("errors:");
+            for (final Object error : (List<?>) errors)
+                System.err.println(error);
+            System.exit(1);
+        }
+        else {
+            System.out.println("all ok");
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Rewrites the values of {@link #PATH_OPTIONS} to absolute paths, in any of the forms picocli accepts them:
+     * "--root dir", "--root=dir", "-r dir", "-r=dir" and "-rdir".
+     */
+    static List<String> absolutePaths(final String... args) {
+
+        final List<String> rewritten = new ArrayList<>(Arrays.asList(args));
+        for (int i = 0; i < rewritten.size(); i++) {
+            final String arg = rewritten.get(i);
+            if (PATH_OPTIONS.contains(arg)) {
+                if (i + 1 < rewritten.size()) {
+                    rewritten.set(i + 1, absolute(rewritten.get(i + 1)));
+                    i++;
+                }
+                continue;
+            }
+
+            for (final String option : PATH_OPTIONS)
+                if (arg.startsWith(option + "=")) {
+                    rewritten.set(i, option + "=" + absolute(arg.substring(option.length() + 1)));
+                    break;
+                }
+                else if (!option.startsWith("--") && arg.startsWith(option) && !arg.startsWith("--")) {
+                    rewritten.set(i, option + absolute(arg.substring(option.length())));
+                    break;
+                }
+        }
+        return rewritten;
+    }
+
+    private static String absolute(final String path) {
+
+        return path.trim().isEmpty()
+                ? path
+                : Paths.get(path.trim()).toAbsolutePath().normalize().toString();
+    }
+
+    static Path daemonFile() {
+
+        // Not read through HuterProperties, which would initialize logging.
+        final String file = System.getProperty(HuterDaemonMain.FILE_PROPERTY);
+        return file == null || file.trim().isEmpty()
+                ? Paths.get(System.getProperty("user.home"), ".huterd")
+                : Paths.get(file.trim());
+    }
+
+    /**
+     * Sends a request to the daemon published in the given file, adding its token.
+     */
+    static Map<?, ?> send(final Path file,
+                          final Map<String, Object> request) throws IOException {
+
+        if (!Files.isRegularFile(file))
+            throw new IOException("daemon file not found, is huterd running? " + file);
+
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        if (lines.size() < 2)
+            throw new IOException("invalid daemon file: " + file);
+
+        final int port = Integer.parseInt(lines.get(0).trim());
+        request.put("token", lines.get(1).trim());
+
+        try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            final Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            writer.write(HuterJson.write(request));
+            writer.write('\n');
+            writer.flush();
+
+            final String line = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), StandardCharsets.UTF_8)).readLine();
+            if (line == null)
+                throw new IOException("huterd closed the connection without a response");
+
+            final Object response = HuterJson.read(line);
+            if (!(response instanceof Map))
+                throw new IOException("invalid response from huterd");
+            return (Map<?, ?>) response;
+        }
+    }
+
+}
@@ -0,0 +1,229 @@
+package io.koosha.huter.main;
+
+import io.koosha.huter.internal.HuterJson;
+import io.koosha.huter.internal.HuterProperties;
+import io.koosha.huter.internal.HuterThrowables;
+import io.koosha.huter.internal.HuterTrace;
+import io.koosha.huter.runner.HuterWarmup;
+import io.koosha.huter.runner.MemoryAccounting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps a warm JVM and Hive stack resident, running tests requested by {@link HuterClientMain} over a localhost
+ * socket, one at a time.
+ * <p>
+ * On start, the port and a random token are written to the daemon file ({@link #FILE_PROPERTY}, readable by the
+ * owner only). Each connection carries a single JSON request line and gets a single JSON response line:
+ * <ul>
+ *     <li>{"token": ..., "args": [...]}: a single test, args as given to {@link HuterMain}. The response is
+ *     {@link Result#toJson()}.</li>
+ *     <li>{"token": ..., "repo": "..."}: the tests of a repository, as {@link HuterRepoMain} does. The response is
+ *     {"errors": [...]}.</li>
+ *     <li>{"token": ..., "command": "ping" | "stop"}.</li>
+ * </ul>
+ * Relative paths are resolved against the working directory of the daemon, not of the client; {@link HuterClientMain}
+ * sends them absolute.
+ */
+public final class HuterDaemonMain {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HuterDaemonMain.class);
+
+    /**
+     * Port to listen on, 0 picks a free one.
+     */
+    public static final String PORT_PROPERTY = "huter.daemon.port";
+
+    /**
+     * Where the port and token of the running daemon are published.
+     */
+    public static final String FILE_PROPERTY = "huter.daemon.file";
+
+    /**
+     * How long to wait for the request line of a connection, so that a silent client does not block the daemon.
+     */
+    public static final String REQUEST_TIMEOUT_PROPERTY = "huter.daemon.requestTimeoutMillis";
+
+    private HuterDaemonMain() {
+        throw new UnsupportedOperationException("utility class can not be instantiated.");
+    }
+
+
+    public static void main(final String... args) throws Exception {
+
+        Thread.currentThread().setName(HuterDaemonMain.class.getSimpleName());
+
+        HuterWarmup.start();
+
+        final Path file = HuterClientMain.daemonFile();
+        final String token = newToken();
+
+        try (final ServerSocket server = new ServerSocket(
+                HuterProperties.getInt(PORT_PROPERTY, 0),
+                50,
+                InetAddress.getLoopbackAddress()
+        )) {
+            publish(file, server.getLocalPort(), token);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> unpublish(file, token), "huter-daemon-unpublish"));
+            LOG.info("huterd listening, port={} file={}", server.getLocalPort(), file);
+
+            HuterWarmup.await();
+
+            boolean stop = false;
+            while (!stop)
+                try (final Socket socket = server.accept()) {
+                    stop = serve(socket, token);
+                    HuterTrace.flush();
+                    if (MemoryAccounting.isRecycleRequested()) {
+                        LOG.warn("leak guard asked for recycling, stopping");
+                        stop = true;
+                    }
+                }
+                catch (final IOException e) {
+                    LOG.warn("error serving request, ignoring", e);
+                }
+        }
+
+        LOG.info("huterd stopped");
+        System.exit(0);
+    }
+
+    /**
+     * @return true if the daemon is asked to stop.
+     */
+    private static boolean serve(final Socket socket,
+                                 final String token) throws IOException {
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), StandardCharsets.UTF_8));
+        final Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+
+        final String line;
+        try {
+            socket.setSoTimeout(HuterProperties.getInt(REQUEST_TIMEOUT_PROPERTY, 10_000));
+            line = reader.readLine();
+            socket.setSoTimeout(0);
+        }
+        catch (final SocketTimeoutException e) {
+            LOG.warn("no request received in time, closing connection");
+            return false;
+        }
+        if (line == null)
+            return false;
+
+        String response;
+        boolean stop = false;
+        try {
+
+            final Object parsed = HuterJson.read(line);
+            if (!(parsed instanceof Map))
+                throw new IllegalArgumentException("request is not a json object");
+            final Map<?, ?> request = (Map<?, ?>) parsed;
+
+            if (!token.equals(request.get("token"))) {
+                LOG.warn("rejecting request with invalid token");
+                response = errors(Collections.singletonList("huter_error: invalid token"));
+            }
+            else if (request.get("args") instanceof List) {
+                final String[] testArgs = ((List<?>) request.get("args"))
+                        .stream()
+                        .map(String::valueOf)
+                        .toArray(String[]::new);
+                LOG.info("running test, args={}", testArgs.length);
+                response = HuterMain.run(testArgs).toJson();
+            }
+            else if (request.get("repo") != null) {
+                response = errors(HuterRepoMain.run(String.valueOf(request.get("repo"))));
+            }
+            else if ("stop".equals(request.get("command"))) {
+                stop = true;
+                response = errors(Collections.emptyList());
+            }
+            else if ("ping".equals(request.get("command"))) {
+                response = errors(Collections.emptyList());
+            }
+            else {
+                response = errors(Collections.singletonList("huter_error: unknown request"));
+            }
+        }
+        catch (final Exception e) {
+            LOG.error("error", e);
+            response = errors(Collections.singletonList("huter_error: " + HuterThrowables.getMessage(e)));
+        }
+
+        writer.write(response);
+        writer.write('\n');
+        writer.flush();
+        return stop;
+    }
+
+    private static String errors(final List<String> errors) {
+
+        final Map<String, Object> response = new LinkedHashMap<>();
+        response.put("errors", errors);
+        return HuterJson.write(response);
+    }
+
+    static String newToken() {
+
+        final byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+
+        final StringBuilder sb = new StringBuilder();
+        for (final byte b : bytes)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    static void publish(final Path file,
+                        final int port,
+                        final String token) throws IOException {
+
+        Files.deleteIfExists(file);
+        try {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        catch (final UnsupportedOperationException e) {
+            Files.createFile(file);
+        }
+
+        Files.write(file, (port + "\n" + token + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void unpublish(final Path file,
+                                  final String token) {
+
+        try {
+            final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8)
+                                            .stream()
+                                            .map(String::trim)
+                                            .collect(Collectors.toList());
+            // Another daemon might have been started since.
+            if (lines.size() >= 2 && token.equals(lines.get(1)))
+                Files.deleteIfExists(file);
+        }
+        catch (final IOException ignore) {
+        }
+    }
+
+}
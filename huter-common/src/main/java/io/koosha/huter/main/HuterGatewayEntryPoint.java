@@ -0,0 +1,81 @@
+package io.koosha.huter.main;
+
+import io.koosha.huter.internal.HuterJson;
+import io.koosha.huter.runner.HuterWarmup;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entry point of py4j gateways, see python/conftest.py.
+ * <p>
+ * Every py4j call is a round trip, so {@link #runJson(String)} takes all the options in a single string and returns
+ * the whole {@link Result} in a single string, instead of the caller building a java array element by element and
+ * walking the rows and cells of the result.
+ */
+// Methods referenced from py4j
+@SuppressWarnings("unused")
+public final class HuterGatewayEntryPoint {
+
+    private HuterGatewayEntryPoint() {
+        throw new UnsupportedOperationException("utility class can not be instantiated.");
+    }
+
+
+    /**
+     * Same as {@link HuterMain#run(String...)}.
+     */
+    public static Result run(final String... args) throws Options.OptionsException {
+
+        return HuterMain.run(args);
+    }
+
+    /**
+     * @param argsJson JSON array of the args of {@link HuterMain}.
+     * @return {@link Result#toJson()}, with invalid options reported as errors.
+     */
+    public static String runJson(final String argsJson) {
+
+        final Object parsed;
+        try {
+            parsed = HuterJson.read(argsJson);
+            if (!(parsed instanceof List))
+                throw new IllegalArgumentException("args are not a json array");
+        }
+        catch (final IllegalArgumentException e) {
+            return error(e.getMessage());
+        }
+
+        final String[] args = ((List<?>) parsed)
+                .stream()
+                .map(String::valueOf)
+                .toArray(String[]::new);
+
+        try {
+            return HuterMain.run(args).toJson();
+        }
+        catch (final Options.OptionsException e) {
+            return error(e.getMessage());
+        }
+    }
+
+    /**
+     * Starts the warm-up, if enabled. Returns immediately, see {@link HuterWarmup}.
+     */
+    public static void warmUp() {
+
+        HuterWarmup.start();
+    }
+
+    private static String error(final String message) {
+
+        final Map<String, Object> response = new LinkedHashMap<>();
+        response.put("errors", Collections.singletonList("huter_error: " + message));
+        response.put("output", Collections.emptyList());
+        response.put("huterOutput", null);
+        return HuterJson.write(response);
+    }
+
+}
@@ -2,10 +2,14 @@ package io.koosha.huter.main;
 
 import io.koosha.huter.internal.HuterFiles;
 import io.koosha.huter.internal.HuterThrowables;
+import io.koosha.huter.internal.HuterMetrics;
+import io.koosha.huter.internal.HuterTrace;
 import io.koosha.huter.runner.DefaultResultValidator;
 import io.koosha.huter.runner.DefaultRunner;
 import io.koosha.huter.runner.HuterContext;
 import io.koosha.huter.runner.HuterRunner;
+import io.koosha.huter.runner.HuterWarmup;
+import io.koosha.huter.runner.MemoryAccounting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,6 +61,8 @@ public final class HuterMain {
         final HuterContext ctx;
         try {
             ctx = createContext(args);
+            // Started by the daemon or the py4j gateway, a single run has nothing to overlap it with.
+            HuterWarmup.await();
         }
         catch (final Options.OptionsException e) {
             throw e;
@@ -66,16 +72,24 @@ public final class HuterMain {
             return Result.create(null, "huter_error: " + HuterThrowables.getMessage(e));
         }
 
+        final MemoryAccounting.Meter meter = MemoryAccounting.start(ctx.getName());
+        HuterMetrics.testStarted();
         final List<Object[]> result;
-        try (final HuterRunner hr = DefaultRunner.of(ctx)) {
+        try (final HuterTrace.Span ignored = HuterTrace.span("test", ctx.getName());
+             final HuterRunner hr = DefaultRunner.of(ctx)) {
             result = hr.run();
         }
         catch (final Throwable e) {
             LOG.error("error", e);
+            HuterMetrics.testFinished(false);
             return Result.create(ctx, "huter_error: " + HuterThrowables.getMessage(e));
         }
+        finally {
+            LOG.info("memory: {}", meter.stop());
+        }
 
         final List<String> errors = DefaultResultValidator.getInstance().apply(ctx.getName(), result);
+        HuterMetrics.testFinished(errors.isEmpty());
         return Result.create(ctx, result, errors);
     }
 
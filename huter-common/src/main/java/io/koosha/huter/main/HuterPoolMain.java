@@ -0,0 +1,297 @@
+package io.koosha.huter.main;
+
+import io.koosha.huter.internal.HuterJson;
+import io.koosha.huter.internal.HuterProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hosts a fixed size pool of {@link HuterDaemonMain} JVMs (engines), each isolated in its own process, and leases
+ * them to clients, so that many concurrent clients (e.g. pytest-xdist workers) share a few warm JVMs.
+ * <p>
+ * The port and a random token of the pool are published in the pool file ({@link #FILE_PROPERTY}). A client sends
+ * {"token": ..., "command": "lease"} and waits for a free engine, getting back {"port": ..., "token": ...} of it, to
+ * which it then talks the protocol of {@link HuterDaemonMain}. The lease lasts as long as the connection to the pool:
+ * closing it returns the engine to the pool. {"token": ..., "command": "stop"} stops the pool and its engines.
+ * <p>
+ * Engines are started with the class path and system properties of the pool, plus the JVM options of
+ * {@link #ENGINE_JVM_ARGS_PROPERTY} (heap...), and restarted if found dead. Other JVM options of the pool are not
+ * passed on, the pool itself needs a small heap only.
+ */
+public final class HuterPoolMain {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HuterPoolMain.class);
+
+    /**
+     * Number of engines.
+     */
+    public static final String SIZE_PROPERTY = "huter.pool.size";
+
+    /**
+     * Port to listen on, 0 picks a free one.
+     */
+    public static final String PORT_PROPERTY = "huter.pool.port";
+
+    /**
+     * Where the port and token of the running pool are published.
+     */
+    public static final String FILE_PROPERTY = "huter.pool.file";
+
+    /**
+     * JVM options of the engines, separated by whitespace.
+     */
+    public static final String ENGINE_JVM_ARGS_PROPERTY = "huter.pool.engineJvmArgs";
+
+    private static final long ENGINE_START_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private HuterPoolMain() {
+        throw new UnsupportedOperationException("utility class can not be instantiated.");
+    }
+
+
+    public static void main(final String... args) throws Exception {
+
+        Thread.currentThread().setName(HuterPoolMain.class.getSimpleName());
+
+        final Path file = poolFile();
+        final Path engineDir = Files.createTempDirectory("huterpool");
+        final int size = Math.max(1, HuterProperties.getInt(SIZE_PROPERTY, 2));
+
+        final List<Engine> engines = new ArrayList<>();
+        for (int i = 0; i < size; i++)
+            engines.add(new Engine(engineDir, i));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> engines.forEach(Engine::stop), "huter-pool-stop"));
+
+        // Concurrently, each takes as long as a full Hive startup.
+        for (final Engine engine : engines)
+            engine.start();
+        for (final Engine engine : engines)
+            engine.awaitReady();
+
+        final BlockingQueue<Engine> free = new LinkedBlockingQueue<>(engines);
+        final String token = HuterDaemonMain.newToken();
+        final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "huter-pool-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try (final ServerSocket server = new ServerSocket(
+                HuterProperties.getInt(PORT_PROPERTY, 0),
+                50,
+                InetAddress.getLoopbackAddress()
+        )) {
+            HuterDaemonMain.publish(file, server.getLocalPort(), token);
+            LOG.info("huter pool listening, port={} size={} file={}", server.getLocalPort(), size, file);
+
+            while (!server.isClosed()) {
+                final Socket socket = server.accept();
+                executor.execute(() -> serve(server, socket, token, free));
+            }
+        }
+        catch (final IOException e) {
+            LOG.info("huter pool stopped: {}", e.getMessage());
+        }
+        finally {
+            executor.shutdownNow();
+            Files.deleteIfExists(file);
+        }
+
+        System.exit(0);
+    }
+
+    private static void serve(final ServerSocket server,
+                              final Socket socket,
+                              final String token,
+                              final BlockingQueue<Engine> free) {
+
+        try (final Socket s = socket) {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    s.getInputStream(), StandardCharsets.UTF_8));
+            final Writer writer = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8);
+
+            s.setSoTimeout(HuterProperties.getInt(HuterDaemonMain.REQUEST_TIMEOUT_PROPERTY, 10_000));
+            final String line = reader.readLine();
+            if (line == null)
+                return;
+            s.setSoTimeout(0);
+
+            final Object parsed = HuterJson.read(line);
+            final Map<?, ?> request = parsed instanceof Map ? (Map<?, ?>) parsed : Collections.emptyMap();
+
+            final Map<String, Object> response = new LinkedHashMap<>();
+            if (!token.equals(request.get("token"))) {
+                LOG.warn("rejecting request with invalid token");
+                response.put("errors", Collections.singletonList("huter_error: invalid token"));
+            }
+            else if ("stop".equals(request.get("command"))) {
+                response.put("errors", Collections.emptyList());
+                respond(writer, response);
+                server.close();
+                return;
+            }
+            else if ("lease".equals(request.get("command"))) {
+                final Engine engine = free.take();
+                try {
+                    engine.ensureAlive();
+                    response.put("errors", Collections.emptyList());
+                    response.putAll(engine.address());
+                    respond(writer, response);
+
+                    // Leased until the client closes the connection.
+                    while (reader.read() >= 0)
+                        continue;
+                }
+                finally {
+                    free.add(engine);
+                }
+                return;
+            }
+            else {
+                response.put("errors", Collections.singletonList("huter_error: unknown request"));
+            }
+
+            respond(writer, response);
+        }
+        catch (final Exception e) {
+            LOG.warn("error serving pool request, ignoring", e);
+        }
+    }
+
+    private static void respond(final Writer writer,
+                                final Map<String, Object> response) throws IOException {
+
+        writer.write(HuterJson.write(response));
+        writer.write('\n');
+        writer.flush();
+    }
+
+    private static Path poolFile() {
+
+        final String file = HuterProperties.getString(FILE_PROPERTY, null);
+        return file == null
+                ? Paths.get(System.getProperty("user.home"), ".huterpool")
+                : Paths.get(file);
+    }
+
+
+    private static final class Engine {
+
+        private final int index;
+        private final Path daemonFile;
+        private final Path logFile;
+        private Process process;
+
+        private Engine(final Path dir,
+                       final int index) {
+            this.index = index;
+            this.daemonFile = dir.resolve("engine-" + index);
+            this.logFile = dir.resolve("engine-" + index + ".log");
+        }
+
+        private synchronized void start() throws IOException {
+
+            Files.deleteIfExists(this.daemonFile);
+
+            final List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            for (final String arg : HuterProperties.getString(ENGINE_JVM_ARGS_PROPERTY, "").trim().split("\\s+"))
+                if (!arg.isEmpty())
+                    command.add(arg);
+            for (final String arg : ManagementFactory.getRuntimeMXBean().getInputArguments())
+                if (arg.startsWith("-D")
+                        && !arg.startsWith("-D" + HuterDaemonMain.FILE_PROPERTY + "=")
+                        && !arg.startsWith("-D" + ENGINE_JVM_ARGS_PROPERTY + "="))
+                    command.add(arg);
+            command.add("-D" + HuterDaemonMain.FILE_PROPERTY + "=" + this.daemonFile);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(HuterDaemonMain.class.getName());
+
+            LOG.info("starting engine={} log={}", this.index, this.logFile);
+            this.process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.appendTo(this.logFile.toFile()))
+                    .start();
+        }
+
+        private void awaitReady() throws IOException, InterruptedException {
+
+            final long deadline = System.currentTimeMillis() + ENGINE_START_TIMEOUT_MILLIS;
+            while (true) {
+                synchronized (this) {
+                    if (!this.process.isAlive())
+                        throw new IOException("engine died while starting, see: " + this.logFile);
+                }
+
+                if (Files.isRegularFile(this.daemonFile))
+                    try {
+                        final Map<String, Object> ping = new LinkedHashMap<>();
+                        ping.put("command", "ping");
+                        HuterClientMain.send(this.daemonFile, ping);
+                        LOG.info("engine={} ready", this.index);
+                        return;
+                    }
+                    catch (final IOException | IllegalArgumentException e) {
+                        LOG.trace("engine={} not ready yet: {}", this.index, e.getMessage());
+                    }
+
+                if (System.currentTimeMillis() > deadline)
+                    throw new IOException("engine did not start in time, see: " + this.logFile);
+                Thread.sleep(200);
+            }
+        }
+
+        private void ensureAlive() throws IOException, InterruptedException {
+
+            synchronized (this) {
+                if (this.process.isAlive())
+                    return;
+                LOG.warn("engine={} died, restarting, exit={}", this.index, this.process.exitValue());
+                this.start();
+            }
+            this.awaitReady();
+        }
+
+        private Map<String, Object> address() throws IOException {
+
+            final List<String> lines = Files.readAllLines(this.daemonFile, StandardCharsets.UTF_8);
+            final Map<String, Object> address = new LinkedHashMap<>();
+            address.put("port", Long.parseLong(lines.get(0).trim()));
+            address.put("token", lines.get(1).trim());
+            return address;
+        }
+
+        private synchronized void stop() {
+
+            if (this.process != null)
+                this.process.destroy();
+        }
+
+    }
+
+}
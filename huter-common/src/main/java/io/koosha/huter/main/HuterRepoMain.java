@@ -1,6 +1,7 @@
 package io.koosha.huter.main;
 
 import io.koosha.huter.internal.HuterFiles;
+import io.koosha.huter.runner.HuterWarmup;
 import io.koosha.huter.runner.RepoRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +45,8 @@ public final class HuterRepoMain {
         if (args.length != 1)
             throw new IllegalArgumentException("expecting only one argument referring to repo directory, got: " + args.length);
 
+        HuterWarmup.start();
+
         final String repoDir = args[0];
         if (!HuterFiles.isDir(repoDir))
             throw new IllegalArgumentException("given path does not exist or is not a directory: " + repoDir);
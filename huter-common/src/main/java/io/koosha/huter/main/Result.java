@@ -1,10 +1,13 @@
 package io.koosha.huter.main;
 
+import io.koosha.huter.internal.HuterJson;
 import io.koosha.huter.runner.HuterContext;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static io.koosha.huter.internal.HuterCollections.freeze;
 import static io.koosha.huter.internal.HuterCollections.freezer;
@@ -43,6 +46,18 @@ public final class Result {
         this.huterOutput = huterOutput;
     }
 
+    /**
+     * This result as a JSON object with the keys errors, output (list of rows) and huterOutput.
+     */
+    public String toJson() {
+
+        final Map<String, Object> json = new LinkedHashMap<>();
+        json.put("errors", this.errors);
+        json.put("output", this.output);
+        json.put("huterOutput", this.huterOutput);
+        return HuterJson.write(json);
+    }
+
     @Override
     public String toString() {
         return "Result{" +
@@ -0,0 +1,203 @@
+package io.koosha.huter.runner;
+
+import io.koosha.huter.internal.HuterAst;
+import org.apache.hadoop.hive.ql.parse.ASTNode;
+import org.apache.hadoop.hive.ql.parse.HiveParser;
+import org.apache.hadoop.hive.ql.parse.ParseDriver;
+import org.apache.hive.service.cli.HiveSQLException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the test queries of several test cases sharing the same setup (the tests of a module) against a single
+ * context, fusing the pure SELECT ones of the same result schema into a single UNION ALL query, tagged by a
+ * discriminator column, so that they cost one DAG instead of one each. The rows are then split back per test case.
+ * <p>
+ * A query is fused only if it is a single SELECT statement without variables, and without a top level ORDER BY,
+ * SORT BY, CLUSTER BY, DISTRIBUTE BY or LIMIT whose meaning would change inside a union. A fusable query which
+ * could not be fused after all (different schema, failure of the fused query) runs on its own. The repo runner
+ * only shares a context among tests whose queries are all fusable, see {@link #isFusable(String)}.
+ */
+final class AssertionFusion {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AssertionFusion.class);
+
+    private static final String DISCRIMINATOR = "huter_case";
+    private static final String VIEW_PREFIX = "huter_fused_";
+
+    private AssertionFusion() {
+        throw new UnsupportedOperationException("can not instantiate utility class");
+    }
+
+    /**
+     * @param testQueries test query of each test case, null if it has none.
+     * @return result of each test case, in the order of the given queries. Empty for those without a query.
+     */
+    static List<List<Object[]>> run(final HuterContext ctx,
+                                    final List<String> testQueries) throws HiveSQLException {
+
+        final List<List<Object[]>> results = new ArrayList<>(Collections.nCopies(
+                testQueries.size(), Collections.emptyList()));
+
+        // Result schema -> indexes of the queries having it.
+        final Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        final List<Integer> alone = new ArrayList<>();
+        for (int i = 0; i < testQueries.size(); i++) {
+            if (testQueries.get(i) == null)
+                continue;
+
+            final String schema = isFusable(testQueries.get(i)) ? schemaOf(ctx, testQueries.get(i), i) : null;
+            if (schema == null)
+                alone.add(i);
+            else
+                groups.computeIfAbsent(schema, it -> new ArrayList<>()).add(i);
+        }
+
+        for (final List<Integer> group : groups.values())
+            if (group.size() < 2 || !runFused(ctx, testQueries, group, results))
+                alone.addAll(group);
+
+        Collections.sort(alone);
+        for (final int i : alone)
+            results.set(i, ctx.executeSql(testQueries.get(i)));
+
+        LOG.info("test queries={} fused={} alone={}", testQueries.size(),
+                testQueries.stream().filter(it -> it != null).count() - alone.size(), alone.size());
+        return results;
+    }
+
+    /**
+     * Whether the given test query is a plain SELECT which can be fused, hence also without side effects.
+     */
+    static boolean isFusable(final String testQuery) {
+
+        final List<String> statements = HuterContext.splitSemiColon(testQuery);
+        if (statements.size() != 1 || statements.get(0).contains("${"))
+            return false;
+
+        try {
+            final ASTNode root = HuterAst.rootOf(new ParseDriver().parse(statements.get(0)));
+            if (root.getType() != HiveParser.TOK_QUERY)
+                return false;
+
+            for (int i = 0; i < root.getChildCount(); i++) {
+                final ASTNode insert = (ASTNode) root.getChild(i);
+                if (insert.getType() != HiveParser.TOK_INSERT)
+                    continue;
+                for (int j = 0; j < insert.getChildCount(); j++)
+                    switch (((ASTNode) insert.getChild(j)).getType()) {
+                        case HiveParser.TOK_DESTINATION:
+                            if (!isTmpFile((ASTNode) insert.getChild(j)))
+                                return false;
+                            break;
+                        case HiveParser.TOK_INSERT_INTO:
+                        case HiveParser.TOK_ORDERBY:
+                        case HiveParser.TOK_SORTBY:
+                        case HiveParser.TOK_CLUSTERBY:
+                        case HiveParser.TOK_DISTRIBUTEBY:
+                        case HiveParser.TOK_LIMIT:
+                            return false;
+                        default:
+                            break;
+                    }
+            }
+
+            return true;
+        }
+        catch (final Exception e) {
+            LOG.debug("could not parse test query, not fusing it, error={}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Plain SELECTs have their destination set by the parser to TOK_DIR TOK_TMP_FILE.
+     */
+    private static boolean isTmpFile(final ASTNode destination) {
+
+        return destination.getChildCount() == 1
+                && ((ASTNode) destination.getChild(0)).getType() == HiveParser.TOK_DIR
+                && destination.getChild(0).getChildCount() == 1
+                && ((ASTNode) destination.getChild(0).getChild(0)).getType() == HiveParser.TOK_TMP_FILE;
+    }
+
+    /**
+     * Column types of the query, as Hive resolves them for a view over it; only touches the metastore.
+     *
+     * @return null if could not be resolved.
+     */
+    private static String schemaOf(final HuterContext ctx,
+                                   final String testQuery,
+                                   final int index) {
+
+        final String view = VIEW_PREFIX + index;
+        try {
+            ctx.executeSql("CREATE VIEW " + view + " AS " + HuterContext.splitSemiColon(testQuery).get(0));
+            try {
+                return ctx.executeSql("DESCRIBE " + view)
+                          .stream()
+                          .filter(row -> row.length > 1 && row[1] != null)
+                          .map(row -> row[1].toString().trim().toLowerCase())
+                          .collect(Collectors.joining(","));
+            }
+            finally {
+                ctx.executeSql("DROP VIEW IF EXISTS " + view);
+            }
+        }
+        catch (final HiveSQLException e) {
+            LOG.debug("could not resolve schema of test query, not fusing it, error={}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return false if the fused query failed, in which case no result is set.
+     */
+    private static boolean runFused(final HuterContext ctx,
+                                    final List<String> testQueries,
+                                    final List<Integer> group,
+                                    final List<List<Object[]>> results) {
+
+        final String fused = group
+                .stream()
+                .map(i -> "SELECT " + i + " AS " + DISCRIMINATOR + ", huter_t" + i + ".* FROM (\n"
+                        + HuterContext.splitSemiColon(testQueries.get(i)).get(0)
+                        + "\n) huter_t" + i)
+                .collect(Collectors.joining("\nUNION ALL\n"));
+
+        final List<Object[]> rows;
+        try {
+            rows = ctx.executeSql(fused);
+        }
+        catch (final HiveSQLException e) {
+            LOG.warn("fused test queries failed, running them one by one, error={}", e.getMessage());
+            return false;
+        }
+
+        final Map<Integer, List<Object[]>> split = new LinkedHashMap<>();
+        for (final int i : group)
+            split.put(i, new ArrayList<>());
+        for (final Object[] row : rows) {
+            final List<Object[]> target = row.length > 0 && row[0] instanceof Number
+                    ? split.get(((Number) row[0]).intValue())
+                    : null;
+            if (target == null) {
+                LOG.warn("unexpected row in fused test query result, running them one by one");
+                return false;
+            }
+            target.add(Arrays.copyOfRange(row, 1, row.length));
+        }
+
+        split.forEach(results::set);
+        return true;
+    }
+
+}
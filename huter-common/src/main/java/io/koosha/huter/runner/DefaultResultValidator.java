@@ -23,6 +23,23 @@ public final class DefaultResultValidator implements BiFunction<String, List<Obj
     private DefaultResultValidator() {
     }
 
+    /**
+     * Same verdict as {@link #apply(String, List)}, without logging.
+     */
+    boolean passes(final List<Object[]> results) {
+
+        boolean foundAnyBool = false;
+        for (final Object[] result : results)
+            for (final Object o : result) {
+                if (Objects.equals(o, false))
+                    return false;
+                if (Objects.equals(o, true))
+                    foundAnyBool = true;
+            }
+
+        return foundAnyBool;
+    }
+
     @Override
     public List<String> apply(final String name,
                               final List<Object[]> results) {
@@ -1,10 +1,18 @@
 package io.koosha.huter.runner;
 
+import io.koosha.huter.ExecutionAuditHook;
+import io.koosha.huter.SharedFixtureGuardHook;
 import io.koosha.huter.TableLocationFixerHook;
 import io.koosha.huter.component.ComponentCreatorHub;
+import io.koosha.huter.component.SharedFixtures;
 import io.koosha.huter.internal.CloseableManager;
+import io.koosha.huter.internal.FileContentCache;
 import io.koosha.huter.internal.HuterFiles;
-import org.apache.hadoop.hive.cli.CliDriver;
+import io.koosha.huter.internal.HuterMetrics;
+import io.koosha.huter.internal.HuterProperties;
+import io.koosha.huter.internal.HuterThrowables;
+import io.koosha.huter.internal.HuterTrace;
+import io.koosha.huter.internal.StringOutputStream;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.metastore.Deadline;
 import org.apache.hadoop.hive.metastore.api.MetaException;
@@ -31,46 +39,252 @@ public final class DefaultRunner extends CloseableManager implements HuterRunner
     private static final Logger LOG = LoggerFactory.getLogger(DefaultRunner.class);
 
     public static final String HUTER_OUTPUT_FILE = "huter_out";
+    public static final String HUTER_ENGINE_AUDIT_FILE = "huter_engine";
+    public static final String HUTER_FS_EXPORT_DIR = "huter_fs";
+    public static final String HUTER_JFR_FILE = "huter_jfr";
+
+    /**
+     * Max duration of a test in seconds, from the start of its run: statements started later fail, and running ones
+     * are cancelled, with {@link HuterTimeoutException}. Also the timeout of metastore calls made by the test. 0
+     * (default) for no limit.
+     */
+    public static final String TEST_TIMEOUT_PROPERTY = "huter.timeout.testSeconds";
+
+    private static final String TRACE_PHASE = "phase";
+
+    /**
+     * Directory under the output directory keeping the state of tests right after their setup, while their parameter
+     * sets run.
+     */
+    private static final String PARAMETER_SETS_DIR = "_parameter_sets";
 
     private final HuterContext ctx;
+    private final List<HuterContext> testCases;
     private final ComponentCreatorHub componentCreatorHub;
+    private final long testTimeoutMillis = Math.max(0, HuterProperties.getLong(TEST_TIMEOUT_PROPERTY, 0)) * 1000;
+    private boolean prepared;
 
-    private DefaultRunner(final HuterContext ctx) {
+    private DefaultRunner(final List<HuterContext> testCases) {
 
-        this.ctx = Objects.requireNonNull(ctx, "ctx can not be null");
+        this.testCases = new ArrayList<>(testCases);
+        if (this.testCases.isEmpty())
+            throw new IllegalArgumentException("no test case given");
+        this.testCases.forEach(it -> Objects.requireNonNull(it, "ctx can not be null"));
+        this.ctx = this.testCases.get(0);
 
-        this.componentCreatorHub = new ComponentCreatorHub(path -> HuterFiles.readFile(
+        this.componentCreatorHub = new ComponentCreatorHub(path -> FileContentCache.getInstance().read(
                 path.isAbsolute() ? path : ctx.getTableDefinitionsRootDir().resolve(path)
         ));
     }
 
     public static HuterRunner of(final HuterContext ctx) {
 
-        return new DefaultRunner(ctx);
+        return new DefaultRunner(Collections.singletonList(ctx));
+    }
+
+    /**
+     * Runs several test cases which differ only in their test query (the tests of a module) or parameter set (see
+     * {@link HuterContext#setParameterSet(Map)}), setting up the first context only. The query is then executed once
+     * per parameter set, followed by the test queries of that set, see {@link AssertionFusion}. Each context gets its
+     * own test result and output, the same as if run on its own; the rest of the contexts are never initialized.
+     * <p>
+     * {@link #run()} returns the result of the first one, the rest are available through
+     * {@link HuterContext#getTestResult()}.
+     */
+    public static HuterRunner fusing(final List<HuterContext> testCases) {
+
+        return new DefaultRunner(testCases);
     }
 
     @Override
     public List<Object[]> run() throws Exception {
 
+        final FlightRecording recording = FlightRecording.start(this.ctx.getName());
+
+        final List<Object[]> result;
+        try {
+            result = this.run0();
+        }
+        catch (final Exception e) {
+            this.testCases.forEach(this::exportInMemoryFs);
+            this.keepRecording(recording, this.testCases);
+            throw e;
+        }
+
+        final List<HuterContext> failed = new ArrayList<>();
+        for (final HuterContext testCase : this.testCases)
+            if (!DefaultResultValidator.getInstance().passes(testCase.getTestResult())) {
+                this.exportInMemoryFs(testCase);
+                failed.add(testCase);
+            }
+        this.keepRecording(recording, failed);
+
+        return result;
+    }
+
+    /**
+     * Creates the directories, the metastore, the configuration and the session of the test. Nothing here is bound to
+     * the calling thread, see {@link #activate()}.
+     */
+    @Override
+    public void prepare() throws Exception {
+
+        if (this.prepared)
+            return;
+
         LOG.info("init");
-        this.init();
+        try (final HuterTrace.Span ignored = HuterTrace.span(TRACE_PHASE, "init")) {
+            this.init();
+        }
+        this.prepared = true;
+    }
+
+    private List<Object[]> run0() throws Exception {
+
+        // Preparation might have happened in the background, while another test was running.
+        this.ctx.setTestTimeout(this.testTimeoutMillis);
+
+        if (!this.prepared)
+            // Preparing on the thread running the test, nothing else runs: this test's metastore can go JVM wide now.
+            DefaultRunnerConfigurator.configureSystemProperties(this.ctx);
+        this.prepare();
+
+        LOG.info("activating");
+        this.activate();
 
-        LOG.info("creating components");
-        this.createComponents();
+        LOG.info("attaching shared components");
+        try (final HuterTrace.Span ignored = HuterTrace.span(TRACE_PHASE, "shared components")) {
+            this.attachSharedComponents();
+        }
+
+        final SetupSnapshots.Snapshot snapshot = SetupSnapshots.of(this.ctx, this.componentCreatorHub);
+        boolean restored = false;
+        if (snapshot != null)
+            try (final HuterTrace.Span ignored = HuterTrace.span(TRACE_PHASE, "snapshot restore")) {
+                restored = snapshot.restore();
+            }
+        if (restored) {
+            LOG.info("components and setup restored from snapshot");
+        }
+        else {
+            LOG.info("creating components");
+            try (final HuterTrace.Span ignored = HuterTrace.span(TRACE_PHASE, "components")) {
+                this.createComponents();
+            }
+
+            LOG.info("setup");
+            try (final HuterTrace.Span ignored = HuterTrace.span(TRACE_PHASE, "setup")) {
+                this.setup();
+            }
+
+            if (snapshot != null)
+                try (final HuterTrace.Span ignored = HuterTrace.span(TRACE_PHASE, "snapshot save")) {
+                    snapshot.save();
+                }
+        }
+
+        // Test cases per parameter set, a single run with no parameter set when no matrix is involved.
+        final Map<Map<String, String>, List<HuterContext>> runs = new LinkedHashMap<>();
+        for (final HuterContext testCase : this.testCases)
+            runs.computeIfAbsent(testCase.getParameterSet(), it -> new ArrayList<>()).add(testCase);
+
+        // Each set starts from the state right after the setup, not from what the script of the previous set left.
+        final SetupSnapshots.Snapshot postSetup = runs.size() > 1 ? this.saveParameterSetsState() : null;
+        final List<String> setupAudit = this.ctx.getExecutionAudit();
+
+        List<Object[]> result = null;
+        boolean first = true;
+        for (final Map.Entry<Map<String, String>, List<HuterContext>> run : runs.entrySet()) {
+            final int auditFrom = this.ctx.getExecutionAudit().size();
+
+            List<Object[]> r;
+            try {
+                r = this.runParameterSet(run.getKey(), run.getValue(), first ? null : postSetup);
+            }
+            catch (final Exception e) {
+                if (run.getKey().isEmpty())
+                    throw e;
+
+                // Fails the tests of this combination only.
+                LOG.error("parameter set failed, set={}", run.getKey(), e);
+                r = Collections.singletonList(new Object[]{
+                        false,
+                        "parameter set failed, set=" + run.getKey() + " error=" + HuterThrowables.getMessage(e)
+                });
+                for (final HuterContext testCase : run.getValue())
+                    testCase.setTestResult(r);
+            }
+            first = false;
+            if (result == null)
+                result = r;
+
+            // The setup, and the statements of this set only.
+            final List<String> all = this.ctx.getExecutionAudit();
+            final List<String> audit = new ArrayList<>(setupAudit);
+            audit.addAll(all.subList(Math.min(auditFrom, all.size()), all.size()));
+
+            LOG.info("writing results");
+            try (final HuterTrace.Span ignored = HuterTrace.span(TRACE_PHASE, "write")) {
+                for (final HuterContext testCase : run.getValue())
+                    this.write(testCase, audit);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @param reset state to bring the test back to first, null to run on the current state.
+     */
+    private List<Object[]> runParameterSet(final Map<String, String> parameterSet,
+                                           final List<HuterContext> testCases,
+                                           final SetupSnapshots.Snapshot reset) throws Exception {
+
+        if (reset != null)
+            try (final HuterTrace.Span ignored = HuterTrace.span(TRACE_PHASE, "snapshot restore")) {
+                LOG.info("resetting to the state after setup");
+                reset.reset();
+            }
 
-        LOG.info("setup");
-        this.setup();
+        if (!parameterSet.isEmpty()) {
+            LOG.info("applying parameter set={}", parameterSet);
+            final Properties parameters = this.ctx.getParametersProperties();
+            parameters.putAll(parameterSet);
+            this.initUpdateParametersInHiveSession(parameters);
+        }
 
         LOG.info("execute");
-        this.execute();
+        try (final HuterTrace.Span ignored = HuterTrace.span(TRACE_PHASE, "execute")) {
+            this.execute();
+        }
 
         LOG.info("generating results");
-        final List<Object[]> result = this.test();
+        try (final HuterTrace.Span ignored = HuterTrace.span(TRACE_PHASE, "test")) {
+            return this.test(testCases);
+        }
+    }
 
-        LOG.info("writing results");
-        this.write();
+    /**
+     * @return null if the state can not be saved, in which case the sets run one after the other on the same tables.
+     */
+    private SetupSnapshots.Snapshot saveParameterSetsState() {
 
-        return result;
+        final Path dir = this.ctx.getOutDir().resolve(PARAMETER_SETS_DIR).resolve(this.ctx.getDbName());
+        final SetupSnapshots.Snapshot snapshot = SetupSnapshots.local(this.ctx, dir);
+        if (snapshot == null) {
+            LOG.warn("data kept in memory, parameter sets share the tables written by their scripts");
+            return null;
+        }
+
+        this.addClosable(() -> HuterFiles.deleteDir(dir));
+        try (final HuterTrace.Span ignored = HuterTrace.span(TRACE_PHASE, "snapshot save")) {
+            snapshot.save();
+        }
+        if (!snapshot.exists()) {
+            LOG.warn("could not save the state after setup, parameter sets share the tables written by their scripts");
+            return null;
+        }
+        return snapshot;
     }
 
     // ------------------------------------------------------------------- INIT
@@ -82,11 +296,9 @@ public final class DefaultRunner extends CloseableManager implements HuterRunner
         this.initDirs();
         this.initMetastore();
         this.initConfigureHive();
-        this.initDeadline();
         this.initSession();
         this.initCleanAndFixUpMetaStore();
         this.initUpdateParametersInHiveSession(this.ctx.getParametersProperties());
-        this.initSetCliDriver();
     }
 
     private void initMetastore() throws Exception {
@@ -103,7 +315,8 @@ public final class DefaultRunner extends CloseableManager implements HuterRunner
                 .filter(it -> !it.isEmpty())
                 .collect(Collectors.toList());
 
-        try (final Connection conn = DriverManager.getConnection(this.ctx.getConnectionStr())) {
+        try (final HuterMetrics.Timer ignored = HuterMetrics.time("phase.metastoreInit");
+             final Connection conn = DriverManager.getConnection(this.ctx.getConnectionStr())) {
             for (final String s : sql) {
                 try (final Statement stmt = conn.createStatement()) {
                     stmt.executeUpdate(s);
@@ -121,30 +334,46 @@ public final class DefaultRunner extends CloseableManager implements HuterRunner
     private void initConfigureHive() {
 
         LOG.info("configuring hive");
-        this.ctx.setHiveConf(new HiveConf());
+        this.ctx.setHiveConf(DefaultRunnerConfigurator.newHiveConf(this.ctx));
         final HiveConf hc = this.ctx.getHiveConf();
 
-        DefaultRunnerConfigurator.configureHive(this.ctx, hc);
-        DefaultRunnerConfigurator.configureHiveExperimentalOptions(hc);
-        DefaultRunnerConfigurator.configureTez(hc);
-        DefaultRunnerConfigurator.configureFs(hc, this.ctx);
-        DefaultRunnerConfigurator.configureDerby(hc);
-
-        hc.setVar(HiveConf.ConfVars.SEMANTIC_ANALYZER_HOOK, TableLocationFixerHook.class.getName());
+        hc.setVar(
+                HiveConf.ConfVars.SEMANTIC_ANALYZER_HOOK,
+                TableLocationFixerHook.class.getName() + "," + SharedFixtureGuardHook.class.getName()
+        );
+        hc.setVar(HiveConf.ConfVars.POSTEXECHOOKS, ExecutionAuditHook.class.getName());
 
         if (LOG.isTraceEnabled())
             LOG.trace("final hive configuration: {}", hc.getAllProperties());
     }
 
+    /**
+     * Binds the thread and JVM wide state of the test to the calling thread, which will run the test. The context
+     * might have been prepared on another thread, while another test was still running.
+     */
+    private void activate() throws MetaException {
+
+        DefaultRunnerConfigurator.configureSystemProperties(this.ctx);
+        this.initDeadline();
+        TezSessionReuse.attach(this.ctx.getCurrentSessionState());
+    }
+
     private void initDeadline() throws MetaException {
 
-        Deadline.registerIfNot(Integer.MAX_VALUE);
+        final long timeout = this.testTimeoutMillis == 0
+                ? Integer.MAX_VALUE
+                : Math.min(this.testTimeoutMillis, Integer.MAX_VALUE);
+        Deadline.registerIfNot(timeout);
+        // The thread might have been registered by a previous test.
+        Deadline.resetTimeout(timeout);
         Deadline.startTimer("something");
     }
 
     private void initSession() throws HiveSQLException {
 
-        this.ctx.init(this.ctx.getHiveConf());
+        try (final HuterMetrics.Timer ignored = HuterMetrics.time("phase.sessionOpen")) {
+            this.ctx.init(this.ctx.getHiveConf());
+        }
         this.addClosable(this.ctx);
 
         // LOG.info("starting new session state.");
@@ -202,24 +431,25 @@ public final class DefaultRunner extends CloseableManager implements HuterRunner
         this.ctx.getCurrentSessionState().setHiveVariables(asStringMap);
     }
 
-    private void initSetCliDriver() {
+    // ---------------------------------------------------------------- EXECUTE
+
+    private void attachSharedComponents() throws Exception {
 
-        this.ctx.setDriver(new CliDriver());
+        SharedFixtures.attach(this.ctx, this.componentCreatorHub);
     }
 
-    // ---------------------------------------------------------------- EXECUTE
-
     private void createComponents() throws Exception {
 
-        for (final String table : this.ctx.getTables())
-            this.componentCreatorHub.createComponent(this.ctx, this.ctx.getDataDir(), table);
+        this.componentCreatorHub.createComponents(this.ctx, this.ctx.getDataDir(), this.ctx.getTables());
     }
 
     private void setup() throws HiveSQLException {
 
-        for (final String setup : this.ctx.getSetupFilesContent()) {
-            final List<Object[]> result = this.ctx.executeSql(setup);
-            LOG.debug("setup result: {}", result);
+        try (final HuterMetrics.Timer ignored = HuterMetrics.time("phase.setup")) {
+            for (final String setup : this.ctx.getSetupFilesContent()) {
+                final List<Object[]> result = this.ctx.executeSql(setup);
+                LOG.debug("setup result: {}", result);
+            }
         }
     }
 
@@ -229,21 +459,30 @@ public final class DefaultRunner extends CloseableManager implements HuterRunner
             return;
 
         SessionState.setCurrentSessionState(this.ctx.getCurrentSessionState());
-        final List<Object[]> result = this.ctx.executeSql(this.ctx.getQuery().get());
-        LOG.debug("execute result: {}", result);
+        try (final HuterMetrics.Timer ignored = HuterMetrics.time("phase.query")) {
+            final List<Object[]> result = this.ctx.executeSql(this.ctx.getQuery().get());
+            LOG.debug("execute result: {}", result);
+        }
     }
 
-    private List<Object[]> test() throws HiveSQLException {
+    /**
+     * @return result of the first test case.
+     */
+    private List<Object[]> test(final List<HuterContext> testCases) throws HiveSQLException {
+
+        if (testCases.size() > 1)
+            return this.testFused(testCases);
 
-        if (!ctx.getTestQuery().isPresent()) {
-            this.ctx.setTestResult(Collections.emptyList());
+        final HuterContext testCase = testCases.get(0);
+        if (!testCase.getTestQuery().isPresent()) {
+            testCase.setTestResult(Collections.emptyList());
             return Collections.emptyList();
         }
 
-        final List<Object[]> result = this.ctx.executeSql(this.ctx.getTestQuery().get());
+        final List<Object[]> result = this.ctx.executeSql(testCase.getTestQuery().get());
         LOG.debug("test query result: {}", result);
 
-        this.ctx.setTestResult(
+        testCase.setTestResult(
                 result.stream()
                       .map(Object[]::clone)
                       .collect(freezer())
@@ -252,43 +491,117 @@ public final class DefaultRunner extends CloseableManager implements HuterRunner
         return result;
     }
 
-    private void write() throws IOException {
+    private List<Object[]> testFused(final List<HuterContext> testCases) throws HiveSQLException {
 
-        if (!this.ctx.getLogDir().isPresent()) {
+        final List<List<Object[]>> results = AssertionFusion.run(
+                this.ctx,
+                testCases.stream()
+                         .map(it -> it.getTestQuery().orElse(null))
+                         .collect(Collectors.toList())
+        );
+
+        for (int i = 0; i < testCases.size(); i++) {
+            LOG.debug("test query result of={}: {}", testCases.get(i).getName(), results.get(i));
+            testCases.get(i).setTestResult(results.get(i));
+        }
+
+        return results.get(0);
+    }
+
+    /**
+     * Saves the flight recording of the run next to the output of each failed test case, or of the first one if none
+     * failed but the recording is worth keeping anyway (slow test).
+     */
+    private void keepRecording(final FlightRecording recording,
+                               final List<HuterContext> failed) {
+
+        if (recording == null)
+            return;
+
+        try {
+            recording.stop();
+
+            final List<HuterContext> targets = !failed.isEmpty()
+                    ? failed
+                    : recording.isWorthKeeping() ? Collections.singletonList(this.ctx) : Collections.emptyList();
+            for (final HuterContext testCase : targets)
+                if (testCase.getLogDir().isPresent())
+                    recording.dump(testCase.getLogDir().get().resolve(
+                            HUTER_JFR_FILE + "__" + testCase.getShortName() + ".jfr"));
+        }
+        finally {
+            recording.close();
+        }
+    }
+
+    /**
+     * Keeps the in memory files of a failed test debuggable, in the log dir of the test.
+     */
+    private void exportInMemoryFs(final HuterContext testCase) {
+
+        if (!this.ctx.isInMemoryFs() || !testCase.getLogDir().isPresent())
+            return;
+
+        final Path target = testCase.getLogDir().get().resolve(HUTER_FS_EXPORT_DIR + "__" + testCase.getShortName());
+        LOG.info("exporting in memory files of failed test to={}", target);
+        try {
+            HuterFiles.recreateDir(target);
+            this.ctx.exportInMemoryFs(target);
+        }
+        catch (final IOException e) {
+            LOG.warn("could not export in memory files to={}", target, e);
+        }
+    }
+
+    /**
+     * Persists the output of the test case into its log directory, if any.
+     *
+     * @param audit engine audit of the runner's context: the setup, followed by the statements of the test case's
+     *              parameter set only. Shared by all test cases of that set.
+     */
+    private void write(final HuterContext testCase,
+                       final List<String> audit) throws IOException {
+
+        if (!testCase.getLogDir().isPresent()) {
             LOG.info("not persisting any output as logDir is not set");
             return;
         }
 
-        final Path logDir = this.ctx.getLogDir().get();
+        final Path logDir = testCase.getLogDir().get();
         LOG.trace("writing test output to file={}", logDir);
 
-        this.ctx.getHuterOutput()
+        testCase.getHuterOutput()
                 .writeUtf8("\n================> TEST [")
-                .writeUtf8(ctx.getName())
+                .writeUtf8(testCase.getName())
                 .writeUtf8("] ==================>\n")
-                .writeUtf8(this.ctx.getTestQuery().isPresent() ? this.ctx.getTestQuery().get() : "NONE")
+                .writeUtf8(testCase.getTestQuery().isPresent() ? testCase.getTestQuery().get() : "NONE")
                 .writeUtf8("\n\n")
                 .writeUtf8("\n================> RESULT [")
-                .writeUtf8(ctx.getName())
+                .writeUtf8(testCase.getName())
                 .writeUtf8("] ================>\n");
 
-        for (final Object[] objects : ctx.getTestResult())
-            this.ctx.getHuterOutput()
+        for (final Object[] objects : testCase.getTestResult())
+            testCase.getHuterOutput()
                     .writeUtf8(Arrays.toString(objects))
                     .writeUtf8("\n");
 
-        this.ctx.getHuterOutput()
+        testCase.getHuterOutput()
                 .writeUtf8("\n\n")
                 .writeUtf8("================> END [")
-                .writeUtf8(ctx.getName())
+                .writeUtf8(testCase.getName())
                 .writeUtf8("] ===================>\n");
 
         final String target = HUTER_OUTPUT_FILE
                 + "__"
-                + ctx.getShortName()
+                + testCase.getShortName()
                 + ".txt";
 
-        HuterFiles.appendToFile(ctx.getHuterOutput(), logDir, target);
+        HuterFiles.appendToFile(testCase.getHuterOutput(), logDir, target);
+
+        final StringOutputStream out = StringOutputStream.forUtf8();
+        for (final String line : audit)
+            out.writeUtf8(line).writeUtf8("\n");
+        HuterFiles.appendToFile(out, logDir, HUTER_ENGINE_AUDIT_FILE + "__" + testCase.getShortName() + ".txt");
     }
 
 }
@@ -1,6 +1,8 @@
 package io.koosha.huter.runner;
 
+import io.koosha.huter.InMemoryFileSystem;
 import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.session.SessionState;
 import org.apache.tez.dag.api.TezConfiguration;
 import org.apache.tez.runtime.library.api.TezRuntimeConfiguration;
 import org.slf4j.Logger;
@@ -17,17 +19,73 @@ final class DefaultRunnerConfigurator {
 
     private static final Logger LOG = LoggerFactory.getLogger(DefaultRunner.class);
 
+    private static HiveConf prototype;
+
     private DefaultRunnerConfigurator() {
         throw new IllegalStateException("can not instantiate utility class");
     }
 
 
-    static void configureHive(final HuterContext ctx,
-                              final HiveConf hc) {
+    /**
+     * A fully configured HiveConf for the given test, copied from a prototype configured once per JVM, so that the
+     * XML resources are parsed and the JVM wide system properties are set only once.
+     */
+    static HiveConf newHiveConf(final HuterContext ctx) {
+
+        final HiveConf hc = new HiveConf(prototype());
+
+        configureConnection(hc, ctx);
+        configureFs(hc, ctx);
+
+        return hc;
+    }
+
+    private static synchronized HiveConf prototype() {
+
+        if (prototype == null) {
+            LOG.info("configuring hive prototype");
+            final HiveConf hc = new HiveConf();
+
+            configureHive(hc);
+            configureHiveExperimentalOptions(hc);
+            configureTez(hc);
+            configureDerby(hc);
+
+            prototype = hc;
+        }
+
+        return prototype;
+    }
+
+    static void configureConnection(final HiveConf hc,
+                                    final HuterContext ctx) {
+
+        // Not as a system property: the context might be prepared while another test runs, see
+        // configureSystemProperties.
+        hc.set("javax.jdo.option.ConnectionURL", ctx.getConnectionStr());
+        hc.set(HiveConf.ConfVars.METASTORECONNECTURLKEY.varname, ctx.getConnectionStr());
+    }
+
+    /**
+     * Makes the metastore of the given test the JVM wide one, read by every HiveConf created from then on (copies
+     * included, HiveConf overlays system properties). To be called only on the thread about to run the test, once
+     * no other test is running.
+     */
+    static void configureSystemProperties(final HuterContext ctx) {
+
+        final String key = HiveConf.ConfVars.METASTORECONNECTURLKEY.varname;
+        System.setProperty(key, ctx.getConnectionStr());
+
+        // The session configuration, if copied while the previous test was running, took its metastore.
+        final SessionState session = ctx.getCurrentSessionState();
+        if (session != null && session.getConf() != null)
+            session.getConf().set(key, ctx.getConnectionStr());
+    }
+
+    static void configureHive(final HiveConf hc) {
 
         hc.setVar(HiveConf.ConfVars.METASTORE_SCHEMA_VERIFICATION, "false");
         hc.setVar(HiveConf.ConfVars.METASTORE_FASTPATH, "true");
-        hc.set("javax.jdo.option.ConnectionURL", ctx.getConnectionStr());
         hc.set("hive.support.sql11.reserved.keywords", "false");
         hc.setVar(HiveConf.ConfVars.HIVEVARIABLESUBSTITUTE, "true");
         hc.setVar(HiveConf.ConfVars.HIVEVARIABLESUBSTITUTEDEPTH, "5");
@@ -43,7 +101,6 @@ final class DefaultRunnerConfigurator {
         setProp(hc, "datanucleus.schema.autoCreateTables", "true");
         setProp(hc, "datanucleus.autoCreateSchema", "true");
         setProp(hc, "metastore.filter.hook", "org.apache.hadoop.hive.metastore.DefaultMetaStoreFilterHookImpl");
-        setProp(hc, HiveConf.ConfVars.METASTORECONNECTURLKEY.varname, ctx.getConnectionStr());
     }
 
     static void configureHiveExperimentalOptions(final HiveConf hc) {
@@ -90,7 +147,10 @@ final class DefaultRunnerConfigurator {
 
         hc.set("fs.defaultFS", "file:///");
         hc.set("fs.default.name", "file:///");
-        hc.set(HiveConf.ConfVars.HIVE_JAR_DIRECTORY.varname, "file://" + ctx.getHiveJarDir());
+        // A reused Tez session keeps referring to its jars after the test (and its root) is gone.
+        hc.set(HiveConf.ConfVars.HIVE_JAR_DIRECTORY.varname, "file://" + (TezSessionReuse.isEnabled()
+                ? TezSessionReuse.jarDir()
+                : ctx.getHiveJarDir()));
         // hc.setVar(HiveConf.ConfVars.HIVE_USER_INSTALL_DIR, "");
         hc.set("_hive.hdfs.session.path", "file://" + ctx.getHiveScratchDir());
         hc.set("_hive.local.session.path", "file://" + ctx.getHiveScratchDir());
@@ -99,7 +159,8 @@ final class DefaultRunnerConfigurator {
         // hc.set("hadoop.tmp.dir", "");
         // hc.set("test.log.dir", "");
         hc.set(HiveConf.ConfVars.LOCALSCRATCHDIR.varname, "//" + ctx.getHiveScratchDir());
-        hc.setVar(HiveConf.ConfVars.METASTOREWAREHOUSE, "file://" + ctx.getHiveWareHouseDir());
+        hc.set(InMemoryFileSystem.IMPL_KEY, InMemoryFileSystem.class.getName());
+        hc.setVar(HiveConf.ConfVars.METASTOREWAREHOUSE, ctx.toLocation(ctx.getHiveWareHouseDir()));
     }
 
     static void configureTez(final HiveConf hc) {
@@ -111,7 +172,16 @@ final class DefaultRunnerConfigurator {
 
         hc.set(TezConfiguration.TEZ_AM_DISABLE_CLIENT_VERSION_CHECK, "true");
         hc.set(TezConfiguration.TEZ_AM_USE_CONCURRENT_DISPATCHER, "false");
-        hc.set(TezConfiguration.TEZ_AM_CONTAINER_REUSE_ENABLED, "false");
+        if (TezSessionReuse.isEnabled()) {
+            // One AM for the whole JVM: keep it (and its containers) around between DAGs and tests.
+            hc.set(TezConfiguration.TEZ_AM_CONTAINER_REUSE_ENABLED, "true");
+            hc.set(TezConfiguration.TEZ_AM_CONTAINER_REUSE_NON_LOCAL_FALLBACK_ENABLED, "true");
+            hc.set(TezConfiguration.TEZ_AM_CONTAINER_REUSE_RACK_FALLBACK_ENABLED, "true");
+            hc.set(TezConfiguration.TEZ_SESSION_AM_DAG_SUBMIT_TIMEOUT_SECS, "-1");
+        }
+        else {
+            hc.set(TezConfiguration.TEZ_AM_CONTAINER_REUSE_ENABLED, "false");
+        }
         hc.set(TezConfiguration.TEZ_TASK_GET_TASK_SLEEP_INTERVAL_MS_MAX, "1");
         hc.set(TezConfiguration.TEZ_AM_WEBSERVICE_ENABLE, "false");
         hc.set(TezConfiguration.DAG_RECOVERY_ENABLED, "false");
@@ -0,0 +1,219 @@
+package io.koosha.huter.runner;
+
+import io.koosha.huter.InMemoryFileSystem;
+import io.koosha.huter.internal.HuterAst;
+import io.koosha.huter.internal.HuterProperties;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.metastore.IMetaStoreClient;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.hadoop.hive.ql.parse.ASTNode;
+import org.apache.hadoop.hive.ql.parse.HiveParser;
+import org.apache.hadoop.hive.ql.parse.ParseDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Decides, per statement, how a query should be executed. Fixture tables are tiny, so queries reading little enough
+ * data are routed to the cheapest path giving the same results: fetch task conversion (no job at all) when Hive can
+ * apply it, else local MR or Tez depending on the mode. Everything else, including queries whose input can not be
+ * estimated (views, tables on remote file systems, variables...), stays on Tez.
+ */
+final class ExecutionPolicy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ExecutionPolicy.class);
+
+    /**
+     * One of {@link Mode}, by name.
+     */
+    static final String POLICY_PROPERTY = "huter.engine.policy";
+
+    /**
+     * Max estimated input of a query, in bytes, to be considered small.
+     */
+    static final String SMALL_INPUT_PROPERTY = "huter.engine.policy.smallInputBytes";
+
+    private static final long DEFAULT_SMALL_INPUT = 8L * 1024 * 1024;
+
+    enum Mode {
+
+        /**
+         * Everything on Tez, as configured.
+         */
+        TEZ,
+
+        /**
+         * Small queries with aggressive fetch task conversion, falling back to Tez.
+         */
+        FETCH,
+
+        /**
+         * Small queries with aggressive fetch task conversion, falling back to local MR.
+         */
+        MR,
+
+    }
+
+    private final Mode mode;
+    private final long smallInputBytes;
+
+    private ExecutionPolicy(final Mode mode,
+                            final long smallInputBytes) {
+        this.mode = mode;
+        this.smallInputBytes = smallInputBytes;
+    }
+
+    static ExecutionPolicy fromProperties() {
+
+        final String name = HuterProperties.getString(POLICY_PROPERTY, Mode.TEZ.name());
+        Mode mode;
+        try {
+            mode = Mode.valueOf(name.toUpperCase());
+        }
+        catch (final IllegalArgumentException e) {
+            LOG.warn("invalid execution policy, using default={}, value={}", Mode.TEZ, name);
+            mode = Mode.TEZ;
+        }
+
+        return new ExecutionPolicy(mode, HuterProperties.getLong(SMALL_INPUT_PROPERTY, DEFAULT_SMALL_INPUT));
+    }
+
+    Decision decide(final HuterContext ctx,
+                    final String statement) {
+
+        if (this.mode == Mode.TEZ)
+            return new Decision("tez", -1, Collections.emptyMap());
+
+        final long input = estimateInput(ctx, statement);
+        if (input < 0 || input > this.smallInputBytes)
+            return new Decision("tez", input, Collections.emptyMap());
+
+        final Map<String, String> overlay = new HashMap<>();
+        overlay.put(HiveConf.ConfVars.HIVEFETCHTASKCONVERSION.varname, "more");
+        overlay.put(HiveConf.ConfVars.HIVEFETCHTASKCONVERSIONTHRESHOLD.varname, "-1");
+        overlay.put(HiveConf.ConfVars.HIVEFETCHTASKAGGR.varname, "true");
+        if (this.mode == Mode.MR)
+            overlay.put(HiveConf.ConfVars.HIVE_EXECUTION_ENGINE.varname, "mr");
+
+        return new Decision(
+                this.mode == Mode.MR ? "fetch_or_mr" : "fetch_or_tez",
+                input,
+                Collections.unmodifiableMap(overlay)
+        );
+    }
+
+    /**
+     * @return total size of the files read by the query, or -1 if not a query or can not be known.
+     */
+    private static long estimateInput(final HuterContext ctx,
+                                      final String statement) {
+
+        if (statement.contains("${"))
+            return -1;
+
+        try {
+            final ASTNode root = HuterAst.rootOf(new ParseDriver().parse(statement));
+            if (root.getType() != HiveParser.TOK_QUERY)
+                return -1;
+
+            final String currentDatabase = ctx.getCurrentDatabase();
+            final IMetaStoreClient msc = ctx.getMetaStoreClient();
+
+            long total = 0;
+            for (final ASTNode tabName : HuterAst.tableReferences(root)) {
+                final String db = tabName.getChildCount() == 2 ? HuterAst.identifier(tabName, 0) : currentDatabase;
+                final String name = HuterAst.identifier(tabName, tabName.getChildCount() - 1);
+
+                if (!msc.tableExists(db, name))
+                    // CTE or subquery alias.
+                    continue;
+
+                final Table table = msc.getTable(db, name);
+                if ("VIRTUAL_VIEW".equals(table.getTableType()) || !table.isSetSd())
+                    return -1;
+
+                final long size = sizeOf(table.getSd().getLocation());
+                if (size < 0)
+                    return -1;
+                total += size;
+            }
+
+            return total;
+        }
+        catch (final Exception e) {
+            LOG.debug("could not estimate input of statement, error={}", e.getMessage());
+            return -1;
+        }
+    }
+
+    private static long sizeOf(final String location) throws IOException {
+
+        if (location != null && location.startsWith(InMemoryFileSystem.SCHEME + ":"))
+            return InMemoryFileSystem.sizeOf(location);
+        if (location == null || !location.startsWith("file:"))
+            return -1;
+
+        String path = location.substring("file:".length());
+        while (path.startsWith("//"))
+            path = path.substring(1);
+
+        final Path dir = Paths.get(path);
+        if (!Files.exists(dir))
+            return 0;
+
+        try (final Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile)
+                        .mapToLong(it -> it.toFile().length())
+                        .sum();
+        }
+    }
+
+
+    static final class Decision {
+
+        private final String path;
+        private final long inputBytes;
+        private final Map<String, String> overlay;
+
+        private Decision(final String path,
+                         final long inputBytes,
+                         final Map<String, String> overlay) {
+            this.path = path;
+            this.inputBytes = inputBytes;
+            this.overlay = overlay;
+        }
+
+        /**
+         * The overlay of this decision, with the explicitly given overlay taking precedence.
+         */
+        Map<String, String> overlay(final Map<String, String> confOverlay) {
+
+            if (this.overlay.isEmpty())
+                return confOverlay;
+
+            final Map<String, String> merged = new HashMap<>(this.overlay);
+            merged.putAll(confOverlay);
+            return merged;
+        }
+
+        String audit(final String executed,
+                     final String statement) {
+
+            final String firstLine = statement.trim().split("\n", 2)[0];
+            return "policy=" + this.path
+                    + " input=" + (this.inputBytes < 0 ? "?" : Long.toString(this.inputBytes))
+                    + " executed=" + (executed == null ? "none" : executed)
+                    + " statement=" + (firstLine.length() > 120 ? firstLine.substring(0, 120) + "..." : firstLine);
+        }
+
+    }
+
+}
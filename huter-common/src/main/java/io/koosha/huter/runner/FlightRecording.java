@@ -0,0 +1,142 @@
+package io.koosha.huter.runner;
+
+import io.koosha.huter.internal.HuterFiles;
+import io.koosha.huter.internal.HuterProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Java Flight Recorder recording of a test, to tell where the time of a slow or failed test went (Derby,
+ * DataNucleus, Tez, UDFs...). Recordings are JVM wide, so anything running concurrently (e.g. the preparation of the
+ * next test, see {@link RepoRunner#PIPELINE_PROPERTY}) shows up too.
+ * <p>
+ * Driven through reflection, as the recorder API is not there on older JDK 8 builds, where recording is skipped.
+ * Errors of the recorder are only logged, they never fail a test.
+ */
+final class FlightRecording {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlightRecording.class);
+
+    /**
+     * Record each test.
+     */
+    static final String JFR_PROPERTY = "huter.jfr";
+
+    /**
+     * Tests running at least this long are slow, and their recording is kept.
+     */
+    static final String THRESHOLD_PROPERTY = "huter.jfr.thresholdSeconds";
+
+    /**
+     * Keep the recording of every test, not only of slow or failed ones.
+     */
+    static final String KEEP_ALL_PROPERTY = "huter.jfr.keepAll";
+
+    /**
+     * Recorder settings, "profile" (default) or "default", or the path of a custom .jfc file.
+     */
+    static final String SETTINGS_PROPERTY = "huter.jfr.settings";
+
+    private static final boolean ENABLED = HuterProperties.getBoolean(JFR_PROPERTY, false);
+    private static final long THRESHOLD_NANOS =
+            TimeUnit.SECONDS.toNanos(HuterProperties.getLong(THRESHOLD_PROPERTY, 60));
+    private static final boolean KEEP_ALL = HuterProperties.getBoolean(KEEP_ALL_PROPERTY, false);
+    private static final String SETTINGS = HuterProperties.getString(SETTINGS_PROPERTY, "profile");
+
+    private static volatile boolean unavailable;
+
+    private final Object recording;
+    private final long start = System.nanoTime();
+    private long duration = -1;
+
+    private FlightRecording(final Object recording) {
+        this.recording = recording;
+    }
+
+    /**
+     * @return null if recording is disabled or not supported.
+     */
+    static FlightRecording start(final String name) {
+
+        if (!ENABLED || unavailable)
+            return null;
+
+        try {
+            final Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+            final Class<?> configurationClass = Class.forName("jdk.jfr.Configuration");
+
+            final Object configuration = SETTINGS.endsWith(".jfc")
+                    ? configurationClass.getMethod("create", Path.class).invoke(null, Paths.get(SETTINGS))
+                    : configurationClass.getMethod("getConfiguration", String.class).invoke(null, SETTINGS);
+
+            final Constructor<?> constructor = recordingClass.getConstructor(configurationClass);
+            final Object recording = constructor.newInstance(configuration);
+            recordingClass.getMethod("setName", String.class).invoke(recording, "huter " + name);
+            recordingClass.getMethod("start").invoke(recording);
+
+            LOG.debug("flight recording started, test={}", name);
+            return new FlightRecording(recording);
+        }
+        catch (final ClassNotFoundException e) {
+            LOG.warn("flight recorder not available in this JVM, not recording tests");
+            unavailable = true;
+            return null;
+        }
+        catch (final Exception e) {
+            LOG.warn("could not start flight recording, test={}", name, e);
+            return null;
+        }
+    }
+
+    /**
+     * Whether the recording is worth keeping even if the test passed. To be called once stopped.
+     */
+    boolean isWorthKeeping() {
+
+        return KEEP_ALL || this.duration >= THRESHOLD_NANOS;
+    }
+
+    void stop() {
+
+        if (this.duration >= 0)
+            return;
+
+        this.duration = System.nanoTime() - this.start;
+        this.invoke("stop");
+    }
+
+    void dump(final Path target) {
+
+        try {
+            HuterFiles.ensureDirectories(target.getParent());
+            this.recording.getClass().getMethod("dump", Path.class).invoke(this.recording, target);
+            LOG.info("flight recording of test, took={}ms, saved to={}", this.duration / 1_000_000, target);
+        }
+        catch (final Exception e) {
+            LOG.warn("could not dump flight recording to={}", target, e);
+        }
+    }
+
+    void close() {
+
+        this.invoke("close");
+    }
+
+    private void invoke(final String method) {
+
+        try {
+            final Method m = this.recording.getClass().getMethod(method);
+            m.invoke(this.recording);
+        }
+        catch (final Exception e) {
+            LOG.warn("flight recording {} failed", method, e);
+        }
+    }
+
+}
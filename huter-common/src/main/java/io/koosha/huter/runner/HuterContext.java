@@ -1,25 +1,36 @@
 package io.koosha.huter.runner;
 
+import io.koosha.huter.ExecutionAuditHook;
+import io.koosha.huter.InMemoryFileSystem;
+import io.koosha.huter.internal.HuterCleaner;
 import io.koosha.huter.internal.HuterCollections;
+import io.koosha.huter.internal.HuterExecutors;
 import io.koosha.huter.internal.HuterFiles;
+import io.koosha.huter.internal.HuterProperties;
 import io.koosha.huter.internal.HuterThrowables;
+import io.koosha.huter.internal.HuterMetrics;
+import io.koosha.huter.internal.HuterTrace;
 import io.koosha.huter.internal.StringOutputStream;
-import org.apache.hadoop.hive.cli.CliDriver;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.metastore.IMetaStoreClient;
+import org.apache.hadoop.hive.metastore.api.MetaException;
 import org.apache.hadoop.hive.ql.exec.tez.TezJobExecHelper;
 import org.apache.hadoop.hive.ql.metadata.Hive;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.session.SessionState;
 import org.apache.hive.service.cli.*;
 import org.apache.hive.service.server.HiveServer2;
-import org.datanucleus.api.jdo.JDOPersistenceManagerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.lang.reflect.Constructor;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import static io.koosha.huter.internal.HuterCollections.freeze;
@@ -35,6 +46,50 @@ public final class HuterContext implements AutoCloseable {
     public static final String HIVE_WAREHOUSE = "warehouse";
     public static final String DERBY_CONN_STRING_IN_MEM = "jdbc:derby:memory:metastore_db;create=true";
 
+    /**
+     * Default {@link Engine} of new contexts, by name.
+     */
+    public static final String ENGINE_PROPERTY = "huter.engine";
+
+    /**
+     * Whether if new contexts keep their warehouse and table data in memory, see {@link InMemoryFileSystem}.
+     */
+    public static final String IN_MEMORY_FS_PROPERTY = "huter.fs.inMemory";
+
+    /**
+     * First delay between status polls of asynchronous statements, in milliseconds, doubled on each poll.
+     */
+    public static final String ASYNC_POLL_INITIAL_PROPERTY = "huter.async.pollInitialMillis";
+
+    /**
+     * Max delay between status polls of asynchronous statements, in milliseconds.
+     */
+    public static final String ASYNC_POLL_MAX_PROPERTY = "huter.async.pollMaxMillis";
+
+    /**
+     * Max duration of a single statement in seconds, after which it is cancelled and fails with
+     * {@link HuterTimeoutException}. 0 (default) for no limit.
+     */
+    public static final String STATEMENT_TIMEOUT_PROPERTY = "huter.timeout.statementSeconds";
+
+    /**
+     * How statements reach Hive.
+     */
+    public enum Engine {
+
+        /**
+         * Through the CLIService of a full HiveServer2, with all of its composite services initialized.
+         */
+        HS2,
+
+        /**
+         * Through a standalone CLIService, the same way Hive's embedded JDBC mode does, without initializing the
+         * rest of HiveServer2 (thrift service, workload management, materialized views registry, shutdown hooks...).
+         */
+        EMBEDDED,
+
+    }
+
     private final String name;
     private final String shortName;
     private final String dbName;
@@ -52,18 +107,32 @@ public final class HuterContext implements AutoCloseable {
 
     private final List<String> setupFiles = new ArrayList<>();
     private final List<String> parameterFiles = new ArrayList<>();
+    private Map<String, String> parameterSet = Collections.emptyMap();
     private final Set<String> tables = new LinkedHashSet<>();
+    private final List<String> sharedSetupFiles = new ArrayList<>();
+    private final Set<String> sharedTables = new LinkedHashSet<>();
 
     private HiveConf hiveConf;
     private String query;
     private String testQuery;
 
-    @SuppressWarnings({"unused", "FieldCanBeLocal"})
-    private CliDriver driver;
+    private Engine engine = defaultEngine();
+    private boolean inMemoryFs = HuterProperties.getBoolean(IN_MEMORY_FS_PROPERTY, false);
+    private final Set<Path> onDiskRoots = ConcurrentHashMap.newKeySet();
     private CLIService client;
     private HiveServer2 hiveServer2;
     private SessionHandle sessionHandle;
     private SessionState currentSessionState;
+    private final Set<SessionHandle> workerSessions = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<SessionHandle> boundSession = new ThreadLocal<>();
+
+    private final ExecutionPolicy executionPolicy = ExecutionPolicy.fromProperties();
+    private final long asyncPollInitialMillis = Math.max(1, HuterProperties.getLong(ASYNC_POLL_INITIAL_PROPERTY, 5));
+    private final long asyncPollMaxMillis = Math.max(1, HuterProperties.getLong(ASYNC_POLL_MAX_PROPERTY, 250));
+    private final long statementTimeoutMillis =
+            Math.max(0, HuterProperties.getLong(STATEMENT_TIMEOUT_PROPERTY, 0)) * 1000;
+    private volatile long testDeadlineNanos;
+    private final List<String> executionAudit = Collections.synchronizedList(new ArrayList<>());
 
     private final StringOutputStream huterOutput = StringOutputStream.forUtf8();
     private List<Object[]> testResult;
@@ -103,8 +172,12 @@ public final class HuterContext implements AutoCloseable {
         return this.hiveConf;
     }
 
-    public void setDriver(final CliDriver driver) {
-        this.driver = driver;
+    public Engine getEngine() {
+        return this.engine;
+    }
+
+    public void setEngine(final Engine engine) {
+        this.engine = Objects.requireNonNull(engine, "engine can not be null");
     }
 
     public SessionState getCurrentSessionState() {
@@ -141,6 +214,18 @@ public final class HuterContext implements AutoCloseable {
         return freeze(this.parameterFiles);
     }
 
+    /**
+     * One set of a parameter matrix, applied on top of the parameter files to the query and the test query only, not
+     * to the setup.
+     */
+    public void setParameterSet(final Map<String, String> parameterSet) {
+        this.parameterSet = Collections.unmodifiableMap(new LinkedHashMap<>(parameterSet));
+    }
+
+    public Map<String, String> getParameterSet() {
+        return this.parameterSet;
+    }
+
     public Properties getParametersProperties() {
         final Properties properties = new Properties();
         for (final String prop : HuterCollections.filter(getParameterFilesContent()))
@@ -172,6 +257,40 @@ public final class HuterContext implements AutoCloseable {
     }
 
 
+    /**
+     * Components shared by all tests of the JVM, see {@link io.koosha.huter.component.SharedFixtures}.
+     */
+    public void addSharedTablesFile(final Path path) throws IOException {
+        this.addSharedTables(HuterFiles.readAllLines(path));
+    }
+
+    public void addSharedTables(final Collection<String> tables) {
+        this.sharedTables.addAll(tables);
+    }
+
+    public Collection<String> getSharedTables() {
+        return freeze(new LinkedHashSet<>(HuterCollections.filter(this.sharedTables)));
+    }
+
+
+    /**
+     * Setup populating the shared components, see {@link io.koosha.huter.component.SharedFixtures}.
+     */
+    public void addSharedSetupFile(final Path path) throws IOException {
+        final String content = HuterFiles.readFile(path);
+        this.addSharedSetupFileContent(content);
+    }
+
+    public void addSharedSetupFileContent(final String content) {
+        Objects.requireNonNull(content);
+        this.sharedSetupFiles.add(content);
+    }
+
+    public List<String> getSharedSetupFilesContent() {
+        return HuterCollections.filter(this.sharedSetupFiles);
+    }
+
+
     public void setQueryFile(final Path path) throws IOException {
         final String content = HuterFiles.readFile(path);
         this.setQuery(content);
@@ -289,16 +408,88 @@ public final class HuterContext implements AutoCloseable {
         return this.dbName;
     }
 
+    public boolean isInMemoryFs() {
+        return this.inMemoryFs;
+    }
+
+    public void setInMemoryFs(final boolean inMemoryFs) {
+        this.inMemoryFs = inMemoryFs;
+    }
+
+    /**
+     * Keeps the given directory, and everything under it, on the local disk even when the in memory file system is
+     * used, for data which must outlive the context.
+     */
+    public void keepOnDisk(final Path root) {
+        this.onDiskRoots.add(root.toAbsolutePath());
+    }
+
+    /**
+     * Hive location of the given directory: on the in memory file system of this context, if enabled, else on the
+     * local disk.
+     */
+    public String toLocation(final Path path) {
+
+        final Path absolute = path.toAbsolutePath();
+        if (!this.inMemoryFs || this.onDiskRoots.stream().anyMatch(absolute::startsWith))
+            return "file://" + absolute;
+        return InMemoryFileSystem.location(this.getDbName(), absolute);
+    }
+
+    /**
+     * Deletes (if exists) and creates the given directory as an empty one, see {@link #toLocation(Path)}.
+     *
+     * @return the location of the directory.
+     */
+    public String recreateLocation(final Path path) throws IOException {
+
+        final String location = this.toLocation(path);
+        if (location.startsWith(InMemoryFileSystem.SCHEME + ":"))
+            InMemoryFileSystem.recreateDir(location);
+        else
+            HuterFiles.recreateDir(path);
+        return location;
+    }
+
+    /**
+     * Copies the in memory files of this context, if any, to the given local directory.
+     */
+    public void exportInMemoryFs(final Path target) throws IOException {
+
+        if (this.inMemoryFs)
+            InMemoryFileSystem.export(this.getDbName(), target);
+    }
+
+
     public String getConnectionStr() {
         return DERBY_CONN_STRING_IN_MEM
                 .replace("metastore_db", "metastore_db_" + this.getDbName());
     }
 
 
+    /**
+     * Statements executed later than the given time from now fail with {@link HuterTimeoutException}, running ones are
+     * cancelled. 0 for no limit.
+     */
+    public void setTestTimeout(final long timeoutMillis) {
+        this.testDeadlineNanos = timeoutMillis <= 0
+                ? 0
+                : System.nanoTime() + timeoutMillis * 1_000_000;
+    }
+
     public StringOutputStream getHuterOutput() {
         return this.huterOutput;
     }
 
+    /**
+     * How each statement executed so far was routed and actually executed, one line per statement.
+     */
+    public List<String> getExecutionAudit() {
+        synchronized (this.executionAudit) {
+            return freeze(new ArrayList<>(this.executionAudit));
+        }
+    }
+
     public List<Object[]> getTestResult() {
         return this.testResult
                 .stream()
@@ -319,21 +510,31 @@ public final class HuterContext implements AutoCloseable {
 
         Objects.requireNonNull(hc);
 
-        this.hiveServer2 = new HiveServer2();
-        this.hiveServer2.init(hc);
-
-        this.client = this
-                .hiveServer2
-                .getServices()
-                .stream()
-                .filter(it -> it instanceof CLIService)
-                .map(it -> (CLIService) it)
-                .findFirst()
-                .orElseThrow(() -> new IllegalStateException("could not find cli service"));
+        switch (this.engine) {
+            case EMBEDDED:
+                this.client = newStandaloneCliService();
+                this.client.init(hc);
+                break;
+
+            case HS2:
+            default:
+                this.hiveServer2 = new HiveServer2();
+                this.hiveServer2.init(hc);
+
+                this.client = this
+                        .hiveServer2
+                        .getServices()
+                        .stream()
+                        .filter(it -> it instanceof CLIService)
+                        .map(it -> (CLIService) it)
+                        .findFirst()
+                        .orElseThrow(() -> new IllegalStateException("could not find cli service"));
+        }
 
         this.sessionHandle = this
                 .client
                 .openSession("noUser", "noPassword", null);
+        HuterMetrics.sessionOpened();
 
         this.currentSessionState = this
                 .client
@@ -342,42 +543,372 @@ public final class HuterContext implements AutoCloseable {
                 .getSessionState();
     }
 
+    private static Engine defaultEngine() {
+
+        final String name = HuterProperties.getString(ENGINE_PROPERTY, Engine.HS2.name());
+        try {
+            return Engine.valueOf(name.toUpperCase());
+        }
+        catch (final IllegalArgumentException e) {
+            LOG.warn("invalid engine, using default={}, value={}", Engine.HS2, name);
+            return Engine.HS2;
+        }
+    }
+
+    private static CLIService newStandaloneCliService() {
+
+        // Hive 2 only has CLIService(HiveServer2), later versions have CLIService(HiveServer2, boolean allowSessions).
+        try {
+            for (final Constructor<?> constructor : CLIService.class.getConstructors()) {
+                final Class<?>[] types = constructor.getParameterTypes();
+                if (types.length == 1 && types[0] == HiveServer2.class)
+                    return (CLIService) constructor.newInstance((Object) null);
+                else if (types.length == 2 && types[0] == HiveServer2.class && types[1] == boolean.class)
+                    return (CLIService) constructor.newInstance(null, true);
+            }
+        }
+        catch (final ReflectiveOperationException e) {
+            throw new IllegalStateException("could not create standalone cli service", e);
+        }
+
+        throw new IllegalStateException("no suitable cli service constructor found");
+    }
+
+    /**
+     * Opens an extra session on the same metastore, carrying over the hive variables of the main session. Useful for
+     * running independent statements concurrently, see {@link #bindSession(SessionHandle)}.
+     */
+    public SessionHandle openSession() throws HiveSQLException {
+
+        return this.openSession(Collections.emptyMap());
+    }
+
+    /**
+     * Same as {@link #openSession()}, with the given session configuration as understood by HiveServer2, such as
+     * {@code use:database} to select the current database or {@code set:hiveconf:key} to set a configuration value.
+     */
+    public SessionHandle openSession(final Map<String, String> configuration) throws HiveSQLException {
+
+        final SessionHandle session = this
+                .client
+                .openSession("noUser", "noPassword", new HashMap<>(configuration));
+        this.workerSessions.add(session);
+        HuterMetrics.sessionOpened();
+
+        final Map<String, String> variables = this.currentSessionState.getHiveVariables();
+        if (variables != null)
+            this.client
+                    .getSessionManager()
+                    .getSession(session)
+                    .getSessionState()
+                    .setHiveVariables(new HashMap<>(variables));
+
+        return session;
+    }
+
+    public void closeSession(final SessionHandle session) throws HiveSQLException {
+
+        if (this.workerSessions.remove(session))
+            try {
+                this.client.closeSession(session);
+            }
+            finally {
+                ExecutionAuditHook.takeLast(session);
+                HuterMetrics.sessionClosed();
+            }
+    }
+
+    /**
+     * Makes {@link #executeSql(String)} on the calling thread use the given session instead of the main one, until
+     * the returned closable is closed.
+     */
+    public AutoCloseable bindSession(final SessionHandle session) {
+
+        Objects.requireNonNull(session, "session can not be null");
+        this.boundSession.set(session);
+        return this.boundSession::remove;
+    }
+
+    /**
+     * Metastore client of the calling thread, bound to this context's metastore.
+     */
+    public IMetaStoreClient getMetaStoreClient() throws HiveException, MetaException {
+
+        return Hive.get(this.hiveConf).getMSC();
+    }
+
+    /**
+     * Current database of the session used by the calling thread, see {@link #bindSession(SessionHandle)}.
+     */
+    public String getCurrentDatabase() throws HiveSQLException {
+
+        return this.client
+                .getSessionManager()
+                .getSession(this.currentSession())
+                .getSessionState()
+                .getCurrentDatabase();
+    }
+
     public List<Object[]> executeSql(final String sql) throws HiveSQLException {
+
+        return this.executeSql(sql, Collections.emptyMap());
+    }
+
+    /**
+     * @param confOverlay configuration applied to the statements of this call only.
+     */
+    public List<Object[]> executeSql(final String sql,
+                                     final Map<String, String> confOverlay) throws HiveSQLException {
+
+        final SessionHandle session = this.currentSession();
+
         final List<Object[]> results = new ArrayList<>();
         for (final String statement : splitSemiColon(sql))
-            results.addAll(this.executeSql0(statement));
+            try (final HuterTrace.Span ignored = HuterTrace.span("statement", traceName(statement))) {
+                final ExecutionPolicy.Decision decision = this.executionPolicy.decide(this, statement);
+                ExecutionAuditHook.takeLast(session);
+                results.addAll(this.executeSql0(session, statement, decision.overlay(confOverlay)));
+                this.executionAudit.add(decision.audit(ExecutionAuditHook.takeLast(session), statement));
+            }
         return freeze(results);
     }
 
-    private List<Object[]> executeSql0(final String sql) throws HiveSQLException {
+    public List<CompletableFuture<List<Object[]>>> executeSqlAsync(final String sql) {
+
+        return this.executeSqlAsync(sql, Collections.emptyMap());
+    }
+
+    /**
+     * Non-blocking counterpart of {@link #executeSql(String, Map)}, for overlapping work across sessions.
+     * <p>
+     * Statements are submitted one after the other, each once the previous one finished, in the session used by the
+     * calling thread at the time of this call. Their status is polled with exponential backoff (see
+     * {@link #ASYNC_POLL_INITIAL_PROPERTY}), without blocking any thread in between.
+     *
+     * @return one future per statement, completing with its results. A failing statement fails its future and those
+     * of the statements after it.
+     */
+    public List<CompletableFuture<List<Object[]>>> executeSqlAsync(final String sql,
+                                                                   final Map<String, String> confOverlay) {
+
+        final SessionHandle session = this.currentSession();
+
+        final List<CompletableFuture<List<Object[]>>> futures = new ArrayList<>();
+        CompletableFuture<?> previous = CompletableFuture.completedFuture(null);
+        for (final String statement : splitSemiColon(sql)) {
+            final CompletableFuture<List<Object[]>> future = previous.thenComposeAsync(
+                    ignore -> this.executeStatementAsync(session, statement, confOverlay),
+                    HuterExecutors.workers()
+            );
+            futures.add(future);
+            previous = future;
+        }
+
+        return futures;
+    }
+
+    private CompletableFuture<List<Object[]>> executeStatementAsync(final SessionHandle session,
+                                                                    final String statement,
+                                                                    final Map<String, String> confOverlay) {
+
+        final CompletableFuture<List<Object[]>> result = new CompletableFuture<>();
+        final long start = System.nanoTime();
+        final ExecutionPolicy.Decision decision = this.executionPolicy.decide(this, statement);
+
+        final long deadline;
         final OperationHandle handle;
         try {
-            handle = this.client.executeStatement(sessionHandle, sql, new HashMap<>());
+            deadline = this.statementDeadline(start);
+            ExecutionAuditHook.takeLast(session);
+            // Compiles on the calling thread, runs in the background pool of the CLIService.
+            handle = this.client.executeStatementAsync(session, statement, new HashMap<>(decision.overlay(confOverlay)));
+        }
+        catch (final HiveSQLException e) {
+            LOG.error("statement failed: {}", statement.trim(), e);
+            result.completeExceptionally(e);
+            return result;
+        }
 
+        this.poll(handle, statement, deadline, this.asyncPollInitialMillis, () -> {
+            final List<Object[]> rows = freeze(this.fetchAll(handle));
+            // Statements of a session run one after the other, the last one recorded is this one.
+            this.executionAudit.add(decision.audit(ExecutionAuditHook.takeLast(session), statement));
+            if (LOG.isDebugEnabled())
+                LOG.debug("statement took={}ms: {}", (System.nanoTime() - start) / 1_000_000, statement.trim());
+            return rows;
+        }, result);
+
+        return result;
+    }
+
+    private void poll(final OperationHandle handle,
+                      final String statement,
+                      final long deadline,
+                      final long delayMillis,
+                      final Callable<List<Object[]>> onFinished,
+                      final CompletableFuture<List<Object[]>> result) {
+
+        HuterExecutors.schedule(() -> {
             try {
-                final Map<String, ? super Object> props = new HashMap<>();
-                props.put("javax.jdo.option.ConnectionDriverName", "org.apache.derby.jdbc.EmbeddedDriver");
-                JDOPersistenceManagerFactory
-                        .getPersistenceManagerFactory(props)
-                        .getPersistenceManager()
-                        .currentTransaction()
-                        .commit();
+                final OperationStatus status = this.client.getOperationStatus(handle, false);
+                if (!status.getState().isTerminal() && deadline != 0 && System.nanoTime() - deadline >= 0) {
+                    try {
+                        this.client.cancelOperation(handle);
+                    }
+                    finally {
+                        this.client.closeOperation(handle);
+                    }
+                    throw this.timedOut(statement);
+                }
+                if (!status.getState().isTerminal()) {
+                    this.poll(
+                            handle,
+                            statement,
+                            deadline,
+                            Math.min(delayMillis * 2, this.asyncPollMaxMillis),
+                            onFinished,
+                            result
+                    );
+                    return;
+                }
+
+                try {
+                    if (status.getState() != OperationState.FINISHED)
+                        throw status.getOperationException() != null
+                                ? status.getOperationException()
+                                : new HiveSQLException("statement did not finish, state=" + status.getState());
+                    result.complete(onFinished.call());
+                }
+                finally {
+                    this.client.closeOperation(handle);
+                }
             }
-            catch (final Exception ignore) {
+            catch (final Throwable e) {
+                result.completeExceptionally(e);
             }
+        }, delayMillis);
+    }
+
+    private SessionHandle currentSession() {
+
+        return this.boundSession.get() == null
+                ? this.sessionHandle
+                : this.boundSession.get();
+    }
+
+    private List<Object[]> executeSql0(final SessionHandle session,
+                                       final String sql,
+                                       final Map<String, String> confOverlay) throws HiveSQLException {
+        final long start = System.nanoTime();
+        final long deadline = this.statementDeadline(start);
+        final OperationHandle handle;
+        try {
+            handle = deadline == 0
+                    ? this.client.executeStatement(session, sql, new HashMap<>(confOverlay))
+                    : this.client.executeStatementAsync(session, sql, new HashMap<>(confOverlay));
+
+            if (deadline != 0)
+                this.awaitOrCancel(handle, sql, deadline);
         }
         catch (HiveSQLException e) {
             LOG.error("statement failed: {}", sql.trim(), e);
             throw e;
         }
 
-        final List<Object[]> resultSet = new ArrayList<>();
-        if (handle.hasResultSet()) {
-            RowSet rowSet;
-            while ((rowSet = this.client.fetchResults(handle)) != null && rowSet.numRows() > 0)
-                for (final Object[] row : rowSet)
-                    resultSet.add(row.clone());
+        final List<Object[]> resultSet = this.fetchAll(handle);
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("statement took={}ms: {}", (System.nanoTime() - start) / 1_000_000, sql.trim());
+
+        return resultSet;
+    }
+
+    /**
+     * @return the deadline (in {@link System#nanoTime()}) of a statement started at the given time, 0 if none.
+     */
+    private long statementDeadline(final long start) throws HuterTimeoutException {
+
+        final long testDeadline = this.testDeadlineNanos;
+        if (testDeadline != 0 && start - testDeadline >= 0)
+            throw new HuterTimeoutException("test time budget exhausted, test=" + this.name);
+
+        final long statementDeadline = this.statementTimeoutMillis == 0
+                ? 0
+                : start + this.statementTimeoutMillis * 1_000_000;
+
+        if (testDeadline == 0)
+            return statementDeadline;
+        if (statementDeadline == 0)
+            return testDeadline;
+        return statementDeadline - testDeadline < 0 ? statementDeadline : testDeadline;
+    }
+
+    /**
+     * Waits for an asynchronous statement to finish, cancelling it once past its deadline.
+     */
+    private void awaitOrCancel(final OperationHandle handle,
+                               final String sql,
+                               final long deadline) throws HiveSQLException {
+
+        long delayMillis = this.asyncPollInitialMillis;
+        while (true) {
+            final OperationStatus status = this.client.getOperationStatus(handle, false);
+            if (status.getState().isTerminal()) {
+                if (status.getState() == OperationState.FINISHED)
+                    return;
+                this.client.closeOperation(handle);
+                throw status.getOperationException() != null
+                        ? status.getOperationException()
+                        : new HiveSQLException("statement did not finish, state=" + status.getState());
+            }
+
+            final long remainingMillis = (deadline - System.nanoTime()) / 1_000_000;
+            if (remainingMillis <= 0) {
+                try {
+                    this.client.cancelOperation(handle);
+                }
+                finally {
+                    this.client.closeOperation(handle);
+                }
+                throw this.timedOut(sql);
+            }
+
+            try {
+                Thread.sleep(Math.min(delayMillis, remainingMillis));
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.client.cancelOperation(handle);
+                this.client.closeOperation(handle);
+                throw new HiveSQLException("interrupted while waiting for statement", e);
+            }
+            delayMillis = Math.min(delayMillis * 2, this.asyncPollMaxMillis);
         }
+    }
+
+    private static String traceName(final String statement) {
+
+        final String firstLine = statement.trim().split("\n", 2)[0];
+        return firstLine.length() > 80 ? firstLine.substring(0, 80) + "..." : firstLine;
+    }
+
+    private HuterTimeoutException timedOut(final String sql) {
+
+        final String statement = sql.trim();
+        return new HuterTimeoutException("statement timed out and was cancelled, test=" + this.name + " statement="
+                + (statement.length() > 200 ? statement.substring(0, 200) + "..." : statement));
+    }
+
+    private List<Object[]> fetchAll(final OperationHandle handle) throws HiveSQLException {
+
+        final List<Object[]> resultSet = new ArrayList<>();
+        if (handle.hasResultSet())
+            try (final HuterMetrics.Timer ignored = HuterMetrics.time("phase.fetch")) {
+                RowSet rowSet;
+                while ((rowSet = this.client.fetchResults(handle)) != null && rowSet.numRows() > 0)
+                    for (final Object[] row : rowSet)
+                        resultSet.add(row.clone());
+            }
 
         return resultSet;
     }
@@ -395,6 +926,27 @@ public final class HuterContext implements AutoCloseable {
             t = err;
         }
 
+        LOG.info("detaching tez session");
+        try {
+            TezSessionReuse.detach(this.currentSessionState);
+            if (this.client != null)
+                for (final SessionHandle session : this.workerSessions)
+                    TezSessionReuse.detach(this.client.getSessionManager().getSession(session).getSessionState());
+        }
+        catch (final Throwable err) {
+            t = HuterThrowables.merge(t, err);
+        }
+
+        LOG.info("closing worker sessions");
+        if (this.client != null)
+            for (final SessionHandle session : new ArrayList<>(this.workerSessions))
+                try {
+                    this.closeSession(session);
+                }
+                catch (final Throwable err) {
+                    t = HuterThrowables.merge(t, err);
+                }
+
         // Will mess up logging if uncommented.
         LOG.info("closing sessionHandle");
         if (this.client != null)
@@ -404,6 +956,12 @@ public final class HuterContext implements AutoCloseable {
             catch (final Throwable err) {
                 t = HuterThrowables.merge(t, err);
             }
+            finally {
+                if (this.sessionHandle != null) {
+                    ExecutionAuditHook.takeLast(this.sessionHandle);
+                    HuterMetrics.sessionClosed();
+                }
+            }
 
         LOG.info("closing currentSessionState");
         if (this.currentSessionState != null)
@@ -415,6 +973,13 @@ public final class HuterContext implements AutoCloseable {
             }
 
         LOG.info("closing hiveServer2");
+        if (this.hiveServer2 == null && this.client != null)
+            try {
+                this.client.stop();
+            }
+            catch (final Throwable err) {
+                t = HuterThrowables.merge(t, err);
+            }
         if (this.hiveServer2 != null)
             try {
                 this.hiveServer2.stop();
@@ -440,6 +1005,15 @@ public final class HuterContext implements AutoCloseable {
             t = HuterThrowables.merge(t, err);
         }
 
+        if (this.inMemoryFs) {
+            LOG.info("dropping in memory files");
+            InMemoryFileSystem.drop(this.getDbName());
+        }
+        else {
+            // Trash of a JVM killed while reusing this root, the own one is deleted by the cleaner anyway.
+            HuterCleaner.getInstance().sweep(this.rootDirectory);
+        }
+
         this.client = null;
         this.hiveServer2 = null;
         this.sessionHandle = null;
@@ -451,7 +1025,10 @@ public final class HuterContext implements AutoCloseable {
             throw new Exception(t);
     }
 
-    private static List<String> splitSemiColon(String line) {
+    /**
+     * Splits a script into its statements, dropping comment lines and empty statements.
+     */
+    public static List<String> splitSemiColon(String line) {
 
         boolean insideSingleQuote = false;
         boolean insideDoubleQuote = false;
@@ -4,6 +4,13 @@ import java.util.List;
 
 public interface HuterRunner extends AutoCloseable {
 
+    /**
+     * Does the part of the work not bound to the thread running the test, if any, so that it can be done ahead of
+     * time on another thread. Optional, {@link #run()} does whatever is not done yet.
+     */
+    default void prepare() throws Exception {
+    }
+
     List<Object[]> run() throws Exception;
 
 }
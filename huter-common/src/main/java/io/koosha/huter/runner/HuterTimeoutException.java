@@ -0,0 +1,17 @@
+package io.koosha.huter.runner;
+
+import org.apache.hive.service.cli.HiveSQLException;
+
+/**
+ * A statement exceeded its time budget, see {@link HuterContext#STATEMENT_TIMEOUT_PROPERTY} and
+ * {@link DefaultRunner#TEST_TIMEOUT_PROPERTY}. The statement is cancelled by the time this is thrown.
+ */
+public final class HuterTimeoutException extends HiveSQLException {
+
+    private static final long serialVersionUID = 1L;
+
+    public HuterTimeoutException(final String message) {
+        super(message);
+    }
+
+}
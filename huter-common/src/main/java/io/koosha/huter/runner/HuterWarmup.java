@@ -0,0 +1,132 @@
+package io.koosha.huter.runner;
+
+import io.koosha.huter.internal.HuterCleaner;
+import io.koosha.huter.internal.HuterFiles;
+import io.koosha.huter.internal.HuterProperties;
+import io.koosha.huter.internal.HuterTrace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs a small, representative test (metastore bootstrap, DDL, insert, join and aggregation) on a background thread,
+ * so that Hive, Tez, DataNucleus and Derby classes are loaded and JIT compiled while the caller is busy discovering
+ * and reading tests, instead of during the first real test. Opt-in, see {@link #WARMUP_PROPERTY}.
+ * <p>
+ * Only started by entry points with work of their own to overlap it with: the repo runner (test discovery), the
+ * daemon and the py4j gateway (waiting for requests). A single test run would only pay for it, and waits for it only
+ * if something else started it.
+ */
+public final class HuterWarmup {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HuterWarmup.class);
+
+    public static final String WARMUP_PROPERTY = "huter.warmup";
+
+    private static final String SETUP = "" +
+            "CREATE TABLE huter_warmup_a (id INT, name STRING);\n" +
+            "CREATE TABLE huter_warmup_b (id INT, amount DOUBLE);\n" +
+            "INSERT INTO huter_warmup_a VALUES (1, 'a'), (2, 'b');\n" +
+            "INSERT INTO huter_warmup_b VALUES (1, 1.0), (1, 2.0), (2, 3.0);\n";
+
+    private static final String QUERY = "" +
+            "CREATE TABLE huter_warmup_c AS\n" +
+            "SELECT a.name, SUM(b.amount) AS total, COUNT(*) AS cnt\n" +
+            "FROM huter_warmup_a a JOIN huter_warmup_b b ON a.id = b.id\n" +
+            "GROUP BY a.name";
+
+    private static final String TEST_QUERY = "SELECT COUNT(*) = 2 FROM huter_warmup_c";
+
+    private static final CountDownLatch done = new CountDownLatch(1);
+    private static Thread thread;
+    private static volatile long durationMillis = -1;
+
+    private HuterWarmup() {
+        throw new UnsupportedOperationException("can not instantiate utility class");
+    }
+
+    /**
+     * Starts the warm-up in the background, if enabled and not already started. Returns immediately.
+     */
+    public static synchronized void start() {
+
+        if (thread != null || !HuterProperties.getBoolean(WARMUP_PROPERTY, false))
+            return;
+
+        thread = new Thread(HuterWarmup::warmUp, "huter-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits for the warm-up to finish, if started. Tests must not run concurrently with it, as it touches JVM wide
+     * state just like a test does.
+     *
+     * @return how long the warm-up took, or -1 if it was not started.
+     */
+    public static long await() throws InterruptedException {
+
+        synchronized (HuterWarmup.class) {
+            if (thread == null)
+                return -1;
+        }
+
+        done.await();
+        return durationMillis;
+    }
+
+    private static void discard(final Path root) {
+
+        try {
+            HuterCleaner.getInstance().discard(root);
+        }
+        catch (final Exception e) {
+            LOG.warn("could not delete warm-up dir={}, ignoring: {}", root, e.getMessage());
+        }
+    }
+
+    private static void warmUp() {
+
+        final long start = System.nanoTime();
+        final Path root = Paths.get(System.getProperty("java.io.tmpdir"), "huter_warmup", UUID.randomUUID().toString());
+        try {
+            final HuterContext ctx = new HuterContext(root, "huter_warmup", "huter_warmup");
+            ctx.addSetupFileContent(SETUP);
+            ctx.setQuery(QUERY);
+            ctx.setTestQuery(TEST_QUERY);
+
+            try (final HuterTrace.Span ignored = HuterTrace.span("warmup", "warm-up");
+                 final HuterRunner runner = DefaultRunner.of(ctx)) {
+                runner.run();
+            }
+        }
+        catch (final Throwable e) {
+            // Only the gain is lost, the tests will warm up on their own.
+            LOG.warn("warm-up failed, ignoring", e);
+        }
+        finally {
+            durationMillis = (System.nanoTime() - start) / 1_000_000;
+            LOG.info("warm-up took={}ms", durationMillis);
+            done.countDown();
+
+            if (TezSessionReuse.isEnabled())
+                // The Tez session of the warm-up is kept for the next test, its scratch and jar dirs are in there.
+                // Deleted right away: the cleaner's background thread does not outlive the JVM.
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        HuterFiles.deleteDir(root);
+                    }
+                    catch (final Exception e) {
+                        LOG.warn("could not delete warm-up dir={}, ignoring: {}", root, e.getMessage());
+                    }
+                }, "huter-warmup-delete"));
+            else
+                discard(root);
+        }
+    }
+
+}
@@ -0,0 +1,270 @@
+package io.koosha.huter.runner;
+
+import io.koosha.huter.internal.HuterProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Heap and GC accounting of tests, and a guard against memory creeping up as tests run in the same JVM.
+ * <p>
+ * Per test: bytes allocated by all the threads of the JVM while it ran (approximate, threads which ended meanwhile
+ * are missed), GC time and count, and the heap retained once the test is closed. The latter is the heap in use
+ * after the last GC, or after a forced one if {@link #GC_AFTER_TEST_PROPERTY} is set.
+ * <p>
+ * The leak guard fits a line over the retained heap of the last tests ({@link #LEAK_WINDOW_PROPERTY}), and reacts
+ * if it grows faster than {@link #LEAK_THRESHOLD_PROPERTY} per test, see {@link #LEAK_ACTION_PROPERTY}.
+ */
+public final class MemoryAccounting {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryAccounting.class);
+
+    /**
+     * Force a GC after each test, for an exact retained heap, at the cost of a full GC per test.
+     */
+    public static final String GC_AFTER_TEST_PROPERTY = "huter.memory.gcAfterTest";
+
+    /**
+     * Number of tests the leak guard looks at, 0 disables it.
+     */
+    public static final String LEAK_WINDOW_PROPERTY = "huter.memory.leakWindow";
+
+    /**
+     * Growth of the retained heap, in MB per test, above which the leak guard reacts.
+     */
+    public static final String LEAK_THRESHOLD_PROPERTY = "huter.memory.leakThresholdMb";
+
+    /**
+     * What the leak guard does: "warn" (default), or "recycle", asking long living JVMs (huterd) to exit once done
+     * with the current request, to be restarted (by huterpool).
+     */
+    public static final String LEAK_ACTION_PROPERTY = "huter.memory.leakAction";
+
+    private static final long MB = 1024 * 1024;
+
+    private static final boolean GC_AFTER_TEST = HuterProperties.getBoolean(GC_AFTER_TEST_PROPERTY, false);
+    private static final int LEAK_WINDOW = Math.max(0, HuterProperties.getInt(LEAK_WINDOW_PROPERTY, 10));
+    private static final long LEAK_THRESHOLD = HuterProperties.getLong(LEAK_THRESHOLD_PROPERTY, 8) * MB;
+    private static final boolean RECYCLE = "recycle".equalsIgnoreCase(
+            HuterProperties.getString(LEAK_ACTION_PROPERTY, "warn"));
+
+    private static final Deque<Long> RETAINED = new ArrayDeque<>();
+    private static volatile boolean recycleRequested;
+
+    private MemoryAccounting() {
+        throw new UnsupportedOperationException("can not instantiate utility class");
+    }
+
+    public static Meter start(final String name) {
+
+        return new Meter(name);
+    }
+
+    /**
+     * Whether the leak guard asked for the JVM to be recycled, see {@link #LEAK_ACTION_PROPERTY}.
+     */
+    public static boolean isRecycleRequested() {
+
+        return recycleRequested;
+    }
+
+    private static synchronized void guard(final Usage usage) {
+
+        if (LEAK_WINDOW < 2)
+            return;
+
+        RETAINED.addLast(usage.getRetainedBytes());
+        while (RETAINED.size() > LEAK_WINDOW)
+            RETAINED.removeFirst();
+        if (RETAINED.size() < LEAK_WINDOW)
+            return;
+
+        final double slope = slope(RETAINED);
+        if (slope <= LEAK_THRESHOLD)
+            return;
+
+        LOG.warn("retained heap growing by {}MB per test over the last {} tests, likely a leak, last test={}",
+                Math.round(slope / MB), RETAINED.size(), usage.getName());
+        // Warn again only after a whole new window.
+        RETAINED.clear();
+
+        if (RECYCLE && !recycleRequested) {
+            LOG.warn("requesting the JVM to be recycled");
+            recycleRequested = true;
+        }
+    }
+
+    /**
+     * Least squares slope of the values against their index.
+     */
+    private static double slope(final Iterable<Long> values) {
+
+        int n = 0;
+        double sumX = 0;
+        double sumY = 0;
+        double sumXY = 0;
+        double sumXX = 0;
+        for (final long y : values) {
+            sumX += n;
+            sumY += y;
+            sumXY += (double) n * y;
+            sumXX += (double) n * n;
+            n++;
+        }
+
+        final double denominator = n * sumXX - sumX * sumX;
+        return denominator == 0 ? 0 : (n * sumXY - sumX * sumY) / denominator;
+    }
+
+    private static Map<Long, Long> allocatedBytes() {
+
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean))
+            return null;
+
+        final com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+        if (!sun.isThreadAllocatedMemorySupported() || !sun.isThreadAllocatedMemoryEnabled())
+            return null;
+
+        final long[] ids = sun.getAllThreadIds();
+        final long[] bytes = sun.getThreadAllocatedBytes(ids);
+        final Map<Long, Long> allocated = new HashMap<>();
+        for (int i = 0; i < ids.length; i++)
+            if (bytes[i] >= 0)
+                allocated.put(ids[i], bytes[i]);
+        return allocated;
+    }
+
+    private static long[] gc() {
+
+        long millis = 0;
+        long count = 0;
+        for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return new long[]{millis, count};
+    }
+
+    private static long retainedBytes() {
+
+        if (GC_AFTER_TEST) {
+            System.gc();
+            return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        }
+
+        long retained = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP)
+                continue;
+            final MemoryUsage afterGc = pool.getCollectionUsage();
+            retained += afterGc == null ? pool.getUsage().getUsed() : afterGc.getUsed();
+        }
+        return retained;
+    }
+
+
+    public static final class Meter {
+
+        private final String name;
+        private final Map<Long, Long> allocatedBefore = allocatedBytes();
+        private final long[] gcBefore = gc();
+
+        private Meter(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * To be called once the test is closed.
+         */
+        public Usage stop() {
+
+            final Map<Long, Long> allocatedAfter = allocatedBytes();
+            long allocated = -1;
+            if (this.allocatedBefore != null && allocatedAfter != null) {
+                allocated = 0;
+                for (final Map.Entry<Long, Long> thread : allocatedAfter.entrySet())
+                    allocated += Math.max(0, thread.getValue() - this.allocatedBefore.getOrDefault(thread.getKey(), 0L));
+            }
+
+            final long[] gcAfter = gc();
+            final Usage usage = new Usage(
+                    this.name,
+                    allocated,
+                    gcAfter[0] - this.gcBefore[0],
+                    gcAfter[1] - this.gcBefore[1],
+                    retainedBytes()
+            );
+
+            LOG.debug("memory: {}", usage);
+            guard(usage);
+            return usage;
+        }
+
+    }
+
+    public static final class Usage {
+
+        private final String name;
+        private final long allocatedBytes;
+        private final long gcMillis;
+        private final long gcCount;
+        private final long retainedBytes;
+
+        private Usage(final String name,
+                      final long allocatedBytes,
+                      final long gcMillis,
+                      final long gcCount,
+                      final long retainedBytes) {
+            this.name = name;
+            this.allocatedBytes = allocatedBytes;
+            this.gcMillis = gcMillis;
+            this.gcCount = gcCount;
+            this.retainedBytes = retainedBytes;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * -1 if not supported by the JVM.
+         */
+        public long getAllocatedBytes() {
+            return this.allocatedBytes;
+        }
+
+        public long getGcMillis() {
+            return this.gcMillis;
+        }
+
+        public long getGcCount() {
+            return this.gcCount;
+        }
+
+        public long getRetainedBytes() {
+            return this.retainedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "test=" + this.name
+                    + " allocatedMb=" + (this.allocatedBytes < 0 ? "?" : Long.toString(this.allocatedBytes / MB))
+                    + " gcMs=" + this.gcMillis
+                    + " gcCount=" + this.gcCount
+                    + " retainedMb=" + this.retainedBytes / MB;
+        }
+
+    }
+
+}
@@ -0,0 +1,86 @@
+package io.koosha.huter.runner;
+
+import io.koosha.huter.internal.HuterFiles;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Parameter sets a test runs with, read from parameters.matrix files: one parameter per line, with its values
+ * separated by '|', expanded to every combination of the values, in the order of the lines:
+ * <pre>
+ * # comment
+ * date   = 2020-01-01 | 2020-02-29
+ * region = eu | us
+ * </pre>
+ * Yields 4 sets, {date=2020-01-01, region=eu}, {date=2020-01-01, region=us}, {date=2020-02-29, region=eu}... Later
+ * files override the parameters of earlier ones.
+ */
+final class ParameterMatrix {
+
+    private ParameterMatrix() {
+        throw new UnsupportedOperationException("can not instantiate utility class");
+    }
+
+    /**
+     * @return the parameter sets, empty if none of the files exist.
+     */
+    static List<Map<String, String>> read(final Path... files) throws IOException {
+
+        final Map<String, List<String>> parameters = new LinkedHashMap<>();
+        for (final Path file : files)
+            if (Files.isRegularFile(file))
+                parse(file, HuterFiles.readFile(file), parameters);
+
+        if (parameters.isEmpty())
+            return Collections.emptyList();
+
+        List<Map<String, String>> sets = Collections.singletonList(Collections.emptyMap());
+        for (final Map.Entry<String, List<String>> parameter : parameters.entrySet()) {
+            final List<Map<String, String>> expanded = new ArrayList<>();
+            for (final Map<String, String> set : sets)
+                for (final String value : parameter.getValue()) {
+                    final Map<String, String> next = new LinkedHashMap<>(set);
+                    next.put(parameter.getKey(), value);
+                    expanded.add(Collections.unmodifiableMap(next));
+                }
+            sets = expanded;
+        }
+
+        return Collections.unmodifiableList(sets);
+    }
+
+    private static void parse(final Path file,
+                              final String content,
+                              final Map<String, List<String>> parameters) {
+
+        final String[] lines = content.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            final String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#") || line.startsWith("!"))
+                continue;
+
+            final int separator = line.indexOf('=');
+            if (separator <= 0)
+                throw new IllegalArgumentException("invalid parameter matrix line, expecting key = value | value..., "
+                        + "file=" + file + " line=" + (i + 1));
+
+            final String key = line.substring(0, separator).trim();
+            final List<String> values = Arrays
+                    .stream(line.substring(separator + 1).split("\\|", -1))
+                    .map(String::trim)
+                    .collect(Collectors.toList());
+
+            parameters.put(key, values);
+        }
+    }
+
+}
@@ -1,7 +1,12 @@
 package io.koosha.huter.runner;
 
 import io.koosha.huter.internal.CloseableManager;
+import io.koosha.huter.internal.HuterCleaner;
+import io.koosha.huter.internal.HuterExecutors;
 import io.koosha.huter.internal.HuterFiles;
+import io.koosha.huter.internal.HuterProperties;
+import io.koosha.huter.internal.HuterMetrics;
+import io.koosha.huter.internal.HuterTrace;
 import org.apache.hadoop.hive.metastore.ObjectStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,6 +20,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -23,16 +33,43 @@ public final class RepoRunner extends CloseableManager implements HuterRunner {
     private static final Logger LOG = LoggerFactory.getLogger(RepoRunner.class);
 
     public static final String REPO_RUNNER_PARAMETERS_INI = "parameters.ini";
+    public static final String REPO_RUNNER_PARAMETERS_MATRIX = "parameters.matrix";
+    public static final String REPO_RUNNER_PARAMETER_SET_LOG_DIR_PREFIX = "set_";
     public static final String REPO_RUNNER_SETUP_SQL_FILE = "setup.hql";
     public static final String REPO_RUNNER_TABLE_LIST_FILE = "dependencies.txt";
+    public static final String REPO_RUNNER_TABLES_DIR = "tables";
+    public static final String REPO_RUNNER_SHARED_TABLE_LIST_FILE = "_shared.txt";
+    public static final String REPO_RUNNER_SHARED_SETUP_SQL_FILE = "_shared.hql";
     public static final String REPO_RUNNER_TEST_DIR_NAME = "test";
     public static final String REPO_RUNNER_OUT_DIR = "out";
     public static final String TEST_CASE_PREFIX = "test_";
     public static final String HIVE_SUFFIX = ".hql";
 
+    /**
+     * Which test outputs to keep under the out dir: "all" (default) or "failed", where the output of a test module is
+     * deleted in the background once all of its tests passed.
+     */
+    public static final String OUTPUT_RETENTION_PROPERTY = "huter.output.retention";
+
+    /**
+     * Prepare the context of the next test (files, parameters, metastore, hive configuration and session) on a
+     * background thread while the current test runs.
+     */
+    public static final String PIPELINE_PROPERTY = "huter.repo.pipeline";
+
+    /**
+     * Set up each test module once and run the test queries of all of its tests against it, fusing the pure SELECT
+     * ones into a single query, see {@link AssertionFusion}. The tests of a module get the same setup anyway.
+     */
+    public static final String FUSE_ASSERTIONS_PROPERTY = "huter.repo.fuseAssertions";
+
     private final Path rootDir;
     private final Path testSubDir;
     private final Path outSubDir;
+    private final boolean keepFailedOutputOnly;
+    private final boolean pipeline;
+    private final boolean fuseAssertions;
+    private final List<MemoryAccounting.Usage> memoryUsages = new ArrayList<>();
 
     public RepoRunner(final String rootDir) {
 
@@ -43,6 +80,16 @@ public final class RepoRunner extends CloseableManager implements HuterRunner {
         this.rootDir = Paths.get(rootDir);
         this.testSubDir = this.rootDir.resolve(REPO_RUNNER_TEST_DIR_NAME);
         this.outSubDir = this.testSubDir.resolve(REPO_RUNNER_OUT_DIR);
+
+        final String retention = HuterProperties.getString(OUTPUT_RETENTION_PROPERTY, "all");
+        if (!"all".equalsIgnoreCase(retention) && !"failed".equalsIgnoreCase(retention))
+            LOG.warn("invalid output retention, using default=all, value={}", retention);
+        this.keepFailedOutputOnly = "failed".equalsIgnoreCase(retention);
+        this.pipeline = HuterProperties.getBoolean(PIPELINE_PROPERTY, false);
+        this.fuseAssertions = HuterProperties.getBoolean(FUSE_ASSERTIONS_PROPERTY, false);
+
+        // Leftovers of previous runs which exited before their trash was deleted.
+        HuterCleaner.getInstance().sweep(this.outSubDir);
     }
 
     @Override
@@ -107,55 +154,266 @@ public final class RepoRunner extends CloseableManager implements HuterRunner {
 
         LOG.trace("executing test suits: {}", testSuits);
 
-        final List<String> errors = new ArrayList<>();
+        final List<TestCase> testCases = new ArrayList<>();
         for (final Path testSuit : testSuits)
-            this.executeTestSuit(errors, testSuit);
+            this.planTestSuit(testCases, testSuit);
+
+        HuterWarmup.await();
+
+        final List<String> errors = this.executeTestCases(testCases);
 
         LOG.info("testSuites={} paths={}", testSuits.size(), testSuits);
+        this.logMemorySummary();
+        HuterTrace.flush();
 
         return errors;
     }
 
-    private void executeTestSuit(final Collection<String> errors,
-                                 final Path testSuitBaseDir) throws Exception {
+    private void planTestSuit(final Collection<TestCase> testCases,
+                              final Path testSuitBaseDir) throws IOException {
 
-        LOG.info("executing test suit={}", testSuitBaseDir);
+        LOG.trace("planning test suit={}", testSuitBaseDir);
         HuterFiles.assertIsAbsolute(testSuitBaseDir);
 
-        final List<Path> testModules = HuterFiles.subDirectoriesOf(testSuitBaseDir);
-        for (final Path testModule : testModules)
-            this.executeTestModule(errors, testSuitBaseDir, testModule);
+        for (final Path testModule : HuterFiles.subDirectoriesOf(testSuitBaseDir))
+            for (final Path testCase : HuterFiles.subFilesOf(testModule, path ->
+                    path.getFileName().toString().toLowerCase().startsWith(TEST_CASE_PREFIX)
+                            && path.getFileName().toString().toLowerCase().endsWith(HIVE_SUFFIX)))
+                testCases.add(new TestCase(testSuitBaseDir, testModule, testCase));
     }
 
-    private void executeTestModule(final Collection<String> errors,
-                                   final Path testSuit,
-                                   final Path testModule) throws Exception {
+    /**
+     * Test cases run together on a single runner: each on its own, or, when fusing assertions, the tests of a module
+     * whose test queries are fusable. Any other test query might have side effects (DML, DDL, SET...) which later tests
+     * must not see, so its test gets a runner of its own.
+     */
+    private List<List<TestCase>> batch(final List<TestCase> testCases) throws IOException {
+
+        final List<List<TestCase>> batches = new ArrayList<>();
+        List<TestCase> shared = null;
+        for (final TestCase testCase : testCases) {
+            if (!this.fuseAssertions || !isFusable(testCase)) {
+                batches.add(new ArrayList<>(Collections.singletonList(testCase)));
+                continue;
+            }
+
+            if (shared == null || !shared.get(0).module.equals(testCase.module)) {
+                shared = new ArrayList<>();
+                batches.add(shared);
+            }
+            shared.add(testCase);
+        }
+        return batches;
+    }
 
-        LOG.info("executing test module={}", testModule);
+    private static boolean isFusable(final TestCase testCase) throws IOException {
 
-        final List<Path> testCases = HuterFiles.subFilesOf(testModule, path ->
-                path.getFileName().toString().toLowerCase().startsWith(TEST_CASE_PREFIX)
-                        && path.getFileName().toString().toLowerCase().endsWith(HIVE_SUFFIX)
-        );
+        final String testQuery = HuterFiles.readFile(testCase.script);
+        return testQuery.trim().isEmpty() || AssertionFusion.isFusable(testQuery);
+    }
+
+    private List<String> executeTestCases(final List<TestCase> testCases) throws Exception {
+
+        final List<String> errors = new ArrayList<>();
+        final List<List<TestCase>> batches = this.batch(testCases);
+
+        final ExecutorService preparer = this.pipeline ? newPreparer() : null;
 
-        for (final Path testCase : testCases)
-            this.executeTestCase(errors, testSuit, testModule, testCase);
+        Future<Batch> next = null;
+        int moduleErrorsBefore = 0;
+        int dequeued = 0;
+        HuterMetrics.testsQueued(testCases.size());
+        try {
+            for (int i = 0; i < batches.size(); i++) {
+                final TestCase testCase = batches.get(i).get(0);
+                final List<TestCase> nextTestCases = i + 1 < batches.size() ? batches.get(i + 1) : null;
+
+                if (i == 0 || !batches.get(i - 1).get(0).module.equals(testCase.module)) {
+                    LOG.info("executing test module={}", testCase.module);
+                    moduleErrorsBefore = errors.size();
+                }
+
+                final Batch batch = next == null ? this.createBatch(batches.get(i), false) : await(next);
+                next = preparer != null && nextTestCases != null
+                        ? preparer.submit(() -> this.createBatch(nextTestCases, true))
+                        : null;
+
+                // Scripts, as queued: with a parameter matrix a batch runs more tests than it has scripts.
+                HuterMetrics.testsQueued(-batches.get(i).size());
+                dequeued += batches.get(i).size();
+                this.executeBatch(errors, batch);
+
+                if (this.keepFailedOutputOnly
+                        && errors.size() == moduleErrorsBefore
+                        && (nextTestCases == null || !nextTestCases.get(0).module.equals(testCase.module))) {
+                    final Path moduleOut = this.outSubDir.resolve(this.testSubDir.relativize(testCase.module));
+                    LOG.debug("all tests passed, discarding output={}", moduleOut);
+                    HuterCleaner.getInstance().discard(moduleOut);
+                }
+            }
+        }
+        finally {
+            HuterMetrics.testsQueued(dequeued - testCases.size());
+            if (next != null)
+                discard(next);
+            if (preparer != null)
+                preparer.shutdownNow();
+        }
+
+        return errors;
     }
 
-    private void executeTestCase(final Collection<String> errors,
-                                 final Path testSuit,
-                                 final Path testModule,
-                                 final Path testCase) throws Exception {
+    private void executeBatch(final Collection<String> errors,
+                              final Batch batch) throws Exception {
 
-        final HuterContext ctx = this.createCtx(testSuit, testModule, testCase);
+        LOG.trace("executing test cases={}", batch.names.size());
 
+        final String label = batch.names.get(0) + (batch.names.size() > 1 ? " +" + (batch.names.size() - 1) : "");
+        final MemoryAccounting.Meter meter = MemoryAccounting.start(label);
+        batch.names.forEach(ignored -> HuterMetrics.testStarted());
         final List<Object[]> result;
-        try (final HuterRunner runner = DefaultRunner.of(ctx)) {
-            result = runner.run();
+        try (final HuterTrace.Span ignored = HuterTrace.span("test", label);
+             final HuterRunner r = batch.runner) {
+            result = r.run();
+        }
+        catch (final Exception e) {
+            this.memoryUsages.add(meter.stop());
+            batch.names.forEach(ignored -> HuterMetrics.testFinished(false));
+
+            final HuterTimeoutException timeout = timeoutOf(e);
+            if (timeout == null)
+                throw e;
+
+            // The context is torn down (running jobs killed) by now, move on to the next test.
+            for (final String name : batch.names) {
+                LOG.info("======> TEST TIMED OUT ======> {}", name);
+                errors.add("test timed out, test=" + name + " error=" + timeout.getMessage());
+            }
+            return;
+        }
+        this.memoryUsages.add(meter.stop());
+
+        for (int i = 0; i < batch.names.size(); i++) {
+            final List<String> e = DefaultResultValidator.getInstance().apply(
+                    batch.names.get(i),
+                    i == 0 ? result : batch.contexts.get(i).getTestResult()
+            );
+            errors.addAll(e);
+            HuterMetrics.testFinished(e.isEmpty());
+        }
+    }
+
+    private void logMemorySummary() {
+
+        if (this.memoryUsages.isEmpty())
+            return;
+
+        long allocated = 0;
+        long gcMillis = 0;
+        long maxRetained = 0;
+        for (final MemoryAccounting.Usage usage : this.memoryUsages) {
+            LOG.info("memory: {}", usage);
+            allocated += Math.max(0, usage.getAllocatedBytes());
+            gcMillis += usage.getGcMillis();
+            maxRetained = Math.max(maxRetained, usage.getRetainedBytes());
         }
 
-        final List<String> e = DefaultResultValidator.getInstance().apply(ctx.getName(), result);
-        errors.addAll(e);
+        final long mb = 1024 * 1024;
+        LOG.info("memory summary: tests={} allocatedMb={} gcMs={} retainedMb first={} last={} max={}",
+                this.memoryUsages.size(),
+                allocated / mb,
+                gcMillis,
+                this.memoryUsages.get(0).getRetainedBytes() / mb,
+                this.memoryUsages.get(this.memoryUsages.size() - 1).getRetainedBytes() / mb,
+                maxRetained / mb);
+    }
+
+    private static HuterTimeoutException timeoutOf(final Throwable error) {
+
+        for (Throwable t = error; t != null; t = t.getCause())
+            if (t instanceof HuterTimeoutException)
+                return (HuterTimeoutException) t;
+        return null;
+    }
+
+    private Batch createBatch(final List<TestCase> testCases,
+                              final boolean prepare) throws Exception {
+
+        // The tests of a batch share the module, hence the matrix.
+        final List<Map<String, String>> parameterSets = ParameterMatrix.read(
+                testCases.get(0).suit.resolve(REPO_RUNNER_PARAMETERS_MATRIX),
+                testCases.get(0).module.resolve(REPO_RUNNER_PARAMETERS_MATRIX)
+        );
+
+        final List<String> names = new ArrayList<>();
+        final List<HuterContext> contexts = new ArrayList<>();
+        if (parameterSets.isEmpty())
+            for (final TestCase testCase : testCases) {
+                names.add(testCase.name());
+                contexts.add(this.createCtx(testCase.suit, testCase.module, testCase.script));
+            }
+        else
+            for (int i = 0; i < parameterSets.size(); i++)
+                for (final TestCase testCase : testCases) {
+                    final HuterContext ctx = this.createCtx(testCase.suit, testCase.module, testCase.script);
+                    ctx.setParameterSet(parameterSets.get(i));
+                    // Each set gets its own outputs, the setup and table data are shared.
+                    ctx.setLogDir(ctx.getLogDir().get().resolve(REPO_RUNNER_PARAMETER_SET_LOG_DIR_PREFIX + i));
+                    names.add(testCase.name() + " " + parameterSets.get(i));
+                    contexts.add(ctx);
+                }
+
+        final HuterRunner runner = contexts.size() == 1
+                ? DefaultRunner.of(contexts.get(0))
+                : DefaultRunner.fusing(contexts);
+        final Batch batch = new Batch(names, contexts, runner);
+        if (!prepare)
+            return batch;
+
+        try (final HuterTrace.Span ignored = HuterTrace.span("test", "prepare " + names.get(0))) {
+            runner.prepare();
+        }
+        catch (final Exception e) {
+            try {
+                runner.close();
+            }
+            catch (final Exception closeError) {
+                e.addSuppressed(closeError);
+            }
+            throw e;
+        }
+
+        return batch;
+    }
+
+    private static ExecutorService newPreparer() {
+
+        return Executors.newSingleThreadExecutor(HuterExecutors.daemonThreadFactory("huter-prepare"));
+    }
+
+    private static Batch await(final Future<Batch> future) throws Exception {
+
+        try {
+            return future.get();
+        }
+        catch (final ExecutionException e) {
+            if (e.getCause() instanceof Exception)
+                throw (Exception) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes a runner prepared for a test which is not going to run anymore.
+     */
+    private static void discard(final Future<Batch> future) {
+
+        try {
+            future.get().runner.close();
+        }
+        catch (final Exception e) {
+            LOG.warn("error discarding prepared test, ignoring: {}", e.getMessage());
+        }
     }
 
 
@@ -167,6 +425,7 @@ public final class RepoRunner extends CloseableManager implements HuterRunner {
 
         this.initParameters(ctx, testSuit, testModule);
         this.initTable(ctx, testSuit);
+        this.initShared(ctx);
         this.initSetup(ctx, testSuit, testModule);
         this.initSetup(ctx, testSuit, testModule);
 
@@ -227,6 +486,20 @@ public final class RepoRunner extends CloseableManager implements HuterRunner {
         }
     }
 
+    private void initShared(HuterContext ctx) throws IOException {
+
+        // Repo level shared components, optional.
+        final Path tablesDir = this.rootDir.resolve(REPO_RUNNER_TABLES_DIR);
+
+        final Path sharedTables = tablesDir.resolve(REPO_RUNNER_SHARED_TABLE_LIST_FILE);
+        if (Files.isRegularFile(sharedTables))
+            ctx.addSharedTablesFile(sharedTables);
+
+        final Path sharedSetup = tablesDir.resolve(REPO_RUNNER_SHARED_SETUP_SQL_FILE);
+        if (Files.isRegularFile(sharedSetup))
+            ctx.addSharedSetupFile(sharedSetup);
+    }
+
     private void initSetup(HuterContext ctx,
                            Path testSuit,
                            Path testModule) {
@@ -246,4 +519,41 @@ public final class RepoRunner extends CloseableManager implements HuterRunner {
         }
     }
 
+
+    private static final class TestCase {
+
+        private final Path suit;
+        private final Path module;
+        private final Path script;
+
+        private TestCase(final Path suit,
+                         final Path module,
+                         final Path script) {
+            this.suit = suit;
+            this.module = module;
+            this.script = script;
+        }
+
+        private String name() {
+            return this.script.getFileName().toString().replace(HIVE_SUFFIX, "");
+        }
+
+    }
+
+    private static final class Batch {
+
+        private final List<String> names;
+        private final List<HuterContext> contexts;
+        private final HuterRunner runner;
+
+        private Batch(final List<String> names,
+                      final List<HuterContext> contexts,
+                      final HuterRunner runner) {
+            this.names = names;
+            this.contexts = contexts;
+            this.runner = runner;
+        }
+
+    }
+
 }
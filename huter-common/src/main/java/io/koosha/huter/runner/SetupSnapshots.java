@@ -0,0 +1,532 @@
+package io.koosha.huter.runner;
+
+import io.koosha.huter.component.ComponentCreatorHub;
+import io.koosha.huter.component.SharedFixtures;
+import io.koosha.huter.internal.HuterFiles;
+import io.koosha.huter.internal.HuterHashes;
+import io.koosha.huter.internal.HuterProperties;
+import org.apache.hadoop.hive.metastore.IMetaStoreClient;
+import org.apache.hadoop.hive.metastore.api.Database;
+import org.apache.hadoop.hive.metastore.api.Function;
+import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Persistent snapshots of the state of a test right after its components are created and its setup is executed, so
+ * that later runs (in this or another JVM) with the exact same DDLs, setup and parameters can restore it instead of
+ * replaying the setup.
+ * <p>
+ * A snapshot holds the metastore objects of the test (databases, tables, partitions and functions, except the shared
+ * ones, see {@link SharedFixtures}) and the table directories living under the test's data and warehouse directories.
+ * Directories are hard linked when possible. Setups which change the session itself (SET, USE, ADD JAR, temporary
+ * objects...) are never snapshot, as that state lives outside the metastore, and neither are tests keeping their
+ * data in memory. Files read by LOAD DATA statements of the setup are part of the snapshot's key (by path, size and
+ * modification time), setups loading files which can not be told apart that way (variables in the path, non-local
+ * file systems) are never snapshot.
+ */
+final class SetupSnapshots {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SetupSnapshots.class);
+
+    /**
+     * Directory keeping the snapshots, snapshots are disabled if not set.
+     */
+    static final String SNAPSHOT_DIR_PROPERTY = "huter.snapshot.dir";
+
+    private static final String FORMAT_VERSION = "huter-snapshot-1";
+    private static final String METASTORE_FILE = "metastore.bin";
+    private static final String FILES_DIR = "files";
+    private static final String DATA_ROOT = "data";
+    private static final String WAREHOUSE_ROOT = "warehouse";
+    private static final String DEFAULT_DATABASE = "default";
+
+    private static final Pattern LOAD_DATA = Pattern.compile(
+            "^load\\s+data\\s+(local\\s+)?inpath\\s+(['\"])(.*?)\\2",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL
+    );
+    private static final Pattern URI_SCHEME = Pattern.compile("^[a-zA-Z][a-zA-Z0-9+.-]*:.*");
+
+    private SetupSnapshots() {
+        throw new UnsupportedOperationException("can not instantiate utility class");
+    }
+
+    /**
+     * @return null if snapshots are disabled, or the test's setup is not eligible for them.
+     */
+    static Snapshot of(final HuterContext ctx,
+                       final ComponentCreatorHub hub) throws IOException {
+
+        final String dir = HuterProperties.getString(SNAPSHOT_DIR_PROPERTY, null);
+        if (dir == null)
+            return null;
+
+        if (ctx.isInMemoryFs()) {
+            LOG.debug("in memory file system used, not using setup snapshots");
+            return null;
+        }
+
+        final String components = hub.fingerprint(ctx.getTables());
+        if (components == null) {
+            LOG.debug("custom components involved, not using setup snapshots");
+            return null;
+        }
+
+        if (!isRestorable(ctx.getSetupFilesContent())) {
+            LOG.debug("setup changes session state, not using setup snapshots");
+            return null;
+        }
+
+        final String inputs = inputsFingerprint(ctx.getSetupFilesContent());
+        if (inputs == null) {
+            LOG.debug("setup loads data from files which can not be fingerprinted, not using setup snapshots");
+            return null;
+        }
+
+        final String key = HuterHashes.sha256(
+                FORMAT_VERSION,
+                components,
+                String.join("\n;\n", ctx.getSetupFilesContent()),
+                String.join("\n", ctx.getParameterFilesContent()),
+                String.join("\n", ctx.getSharedTables()),
+                String.join("\n;\n", ctx.getSharedSetupFilesContent()),
+                inputs
+        );
+
+        return new Snapshot(ctx, Paths.get(dir).toAbsolutePath().resolve(key));
+    }
+
+    /**
+     * A snapshot of the test kept in the given directory, for this test only: to bring it back to the state it is in
+     * once saved, see {@link Snapshot#reset()}.
+     *
+     * @return null if the test's state can not be snapshot, as its data is kept in memory.
+     */
+    static Snapshot local(final HuterContext ctx,
+                          final Path dir) {
+
+        return ctx.isInMemoryFs() ? null : new Snapshot(ctx, dir);
+    }
+
+    private static boolean isRestorable(final List<String> setups) {
+
+        for (final String setup : setups)
+            for (final String statement : HuterContext.splitSemiColon(setup)) {
+                final String s = statement.toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+                if (s.equals("set")
+                        || s.startsWith("set ")
+                        || s.startsWith("reset")
+                        || s.startsWith("use ")
+                        || s.startsWith("add ")
+                        || s.startsWith("delete jar")
+                        || s.startsWith("delete file")
+                        || s.startsWith("delete archive")
+                        || s.startsWith("create temporary "))
+                    return false;
+            }
+
+        return true;
+    }
+
+    /**
+     * Path, size and modification time of every file read by the LOAD DATA statements of the given setups, as their
+     * text says nothing of the data loaded.
+     *
+     * @return null if some input can not be fingerprinted.
+     */
+    private static String inputsFingerprint(final List<String> setups) throws IOException {
+
+        final StringBuilder sb = new StringBuilder();
+        for (final String setup : setups)
+            for (final String statement : HuterContext.splitSemiColon(setup)) {
+                final String s = statement.trim();
+                if (!s.toLowerCase(Locale.ROOT).replaceAll("\\s+", " ").startsWith("load data"))
+                    continue;
+
+                final Matcher matcher = LOAD_DATA.matcher(s);
+                if (!matcher.find())
+                    return null;
+
+                final String location = matcher.group(3);
+                final Path input;
+                if (location.contains("${"))
+                    return null;
+                else if (location.startsWith("file:"))
+                    input = Paths.get(URI.create(location));
+                else if (URI_SCHEME.matcher(location).matches())
+                    return null;
+                else
+                    // Resolved by Hive against the working directory too, the default file system being the local one.
+                    input = Paths.get(location).toAbsolutePath();
+
+                if (!Files.exists(input)) {
+                    sb.append(input).append(" missing\n");
+                    continue;
+                }
+
+                final List<Path> files;
+                try (final Stream<Path> walk = Files.walk(input)) {
+                    files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                }
+                for (final Path file : files)
+                    sb.append(file)
+                      .append(' ')
+                      .append(Files.size(file))
+                      .append(' ')
+                      .append(Files.getLastModifiedTime(file).toMillis())
+                      .append('\n');
+            }
+
+        return sb.toString();
+    }
+
+
+    static final class Snapshot {
+
+        private final HuterContext ctx;
+        private final Path dir;
+
+        private Snapshot(final HuterContext ctx,
+                         final Path dir) {
+            this.ctx = ctx;
+            this.dir = dir;
+        }
+
+        /**
+         * Whether the snapshot is saved, {@link #save()} only logs its failures.
+         */
+        boolean exists() {
+
+            return Files.isRegularFile(this.dir.resolve(METASTORE_FILE));
+        }
+
+        /**
+         * Drops everything of the test but the shared components, data included, and restores the snapshot.
+         */
+        void reset() throws Exception {
+
+            if (!this.exists())
+                throw new IllegalStateException("no snapshot to reset to, dir=" + this.dir);
+
+            final IMetaStoreClient msc = this.ctx.getMetaStoreClient();
+            for (final String db : msc.getAllDatabases()) {
+                if (SharedFixtures.DATABASE.equalsIgnoreCase(db))
+                    continue;
+
+                if (!DEFAULT_DATABASE.equalsIgnoreCase(db)) {
+                    msc.dropDatabase(db, true, true, true);
+                    continue;
+                }
+
+                for (final String name : msc.getAllTables(db))
+                    msc.dropTable(db, name, true, true);
+                for (final String name : msc.getFunctions(db, "*"))
+                    msc.dropFunction(db, name);
+            }
+
+            if (!this.restore())
+                throw new IllegalStateException("could not restore snapshot, dir=" + this.dir);
+        }
+
+        /**
+         * @return false if there is no usable snapshot, in which case nothing was touched.
+         */
+        boolean restore() throws Exception {
+
+            final Path metastoreFile = this.dir.resolve(METASTORE_FILE);
+            if (!Files.isRegularFile(metastoreFile))
+                return false;
+
+            final State state;
+            try (final InputStream in = Files.newInputStream(metastoreFile);
+                 final ObjectInputStream ois = new ObjectInputStream(in)) {
+                state = (State) ois.readObject();
+            }
+            catch (final IOException | ClassNotFoundException | ClassCastException e) {
+                LOG.warn("unreadable setup snapshot, ignoring, dir={} error={}", this.dir, e.toString());
+                return false;
+            }
+
+            LOG.info("restoring setup snapshot, dir={}", this.dir);
+            final Relocation relocation = new Relocation(state, this.ctx);
+
+            for (final String directory : state.directories) {
+                final Path target = relocation.target(directory);
+                HuterFiles.recreateDir(target);
+                HuterFiles.linkOrCopyTree(this.dir.resolve(FILES_DIR).resolve(directory), target);
+            }
+
+            final IMetaStoreClient msc = this.ctx.getMetaStoreClient();
+
+            for (final Database template : state.databases) {
+                final Database database = template.deepCopy();
+                database.setLocationUri(relocation.location(database.getLocationUri()));
+                msc.createDatabase(database);
+            }
+
+            for (final Table template : state.tables) {
+                final Table table = template.deepCopy();
+                if (table.isSetSd())
+                    table.getSd().setLocation(relocation.location(table.getSd().getLocation()));
+                msc.createTable(table);
+            }
+
+            if (!state.partitions.isEmpty()) {
+                final List<Partition> partitions = new ArrayList<>();
+                for (final Partition template : state.partitions) {
+                    final Partition partition = template.deepCopy();
+                    if (partition.isSetSd())
+                        partition.getSd().setLocation(relocation.location(partition.getSd().getLocation()));
+                    partitions.add(partition);
+                }
+                msc.add_partitions(partitions);
+            }
+
+            for (final Function function : state.functions)
+                msc.createFunction(function.deepCopy());
+
+            return true;
+        }
+
+        /**
+         * Saves the current state of the test. Failures are only logged, snapshots are an optimization.
+         */
+        void save() {
+
+            if (Files.isDirectory(this.dir))
+                return;
+
+            final Path tmp = this.dir.resolveSibling(this.dir.getFileName() + ".tmp-" + UUID.randomUUID());
+            try {
+                LOG.info("saving setup snapshot, dir={}", this.dir);
+                final State state = this.capture();
+
+                HuterFiles.ensureDirectories(tmp);
+                final Relocation relocation = new Relocation(state, this.ctx);
+                for (final String directory : state.directories) {
+                    final Path source = relocation.target(directory);
+                    final Path target = tmp.resolve(FILES_DIR).resolve(directory);
+                    HuterFiles.ensureDirectories(target);
+                    if (Files.isDirectory(source))
+                        HuterFiles.linkOrCopyTree(source, target);
+                }
+
+                try (final OutputStream out = Files.newOutputStream(tmp.resolve(METASTORE_FILE));
+                     final ObjectOutputStream oos = new ObjectOutputStream(out)) {
+                    oos.writeObject(state);
+                }
+
+                Files.move(tmp, this.dir, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (final Exception e) {
+                LOG.warn("could not save setup snapshot, dir={}", this.dir, e);
+            }
+            finally {
+                try {
+                    HuterFiles.deleteDir(tmp);
+                }
+                catch (final IOException e) {
+                    LOG.warn("could not delete temporary snapshot dir={}", tmp, e);
+                }
+            }
+        }
+
+        private State capture() throws Exception {
+
+            final IMetaStoreClient msc = this.ctx.getMetaStoreClient();
+            final String dataDir = this.ctx.getDataDir().toAbsolutePath().toString();
+            final String warehouseDir = this.ctx.getHiveWareHouseDir().toAbsolutePath().toString();
+
+            final List<Database> databases = new ArrayList<>();
+            final List<Table> tables = new ArrayList<>();
+            final List<Partition> partitions = new ArrayList<>();
+            final List<Function> functions = new ArrayList<>();
+            final List<String> locations = new ArrayList<>();
+
+            for (final String db : msc.getAllDatabases()) {
+                if (SharedFixtures.DATABASE.equalsIgnoreCase(db))
+                    continue;
+                if (!DEFAULT_DATABASE.equalsIgnoreCase(db))
+                    databases.add(msc.getDatabase(db).deepCopy());
+
+                for (final String name : msc.getAllTables(db)) {
+                    final Table table = msc.getTable(db, name).deepCopy();
+                    tables.add(table);
+                    if (table.isSetSd())
+                        locations.add(table.getSd().getLocation());
+
+                    for (final Partition partition : msc.listPartitions(db, name, (short) -1)) {
+                        partitions.add(partition.deepCopy());
+                        if (partition.isSetSd())
+                            locations.add(partition.getSd().getLocation());
+                    }
+                }
+
+                for (final String name : msc.getFunctions(db, "*"))
+                    functions.add(msc.getFunction(db, name).deepCopy());
+            }
+
+            // Only the outermost directories, partitions usually live inside their table's directory.
+            final TreeSet<String> candidates = new TreeSet<>();
+            for (final String location : locations) {
+                final String directory = Relocation.relative(location, dataDir, warehouseDir);
+                if (directory != null)
+                    candidates.add(directory);
+            }
+            final List<String> directories = new ArrayList<>();
+            for (final String candidate : candidates)
+                if (directories.isEmpty() || !candidate.startsWith(directories.get(directories.size() - 1) + "/"))
+                    directories.add(candidate);
+
+            return new State(
+                    dataDir,
+                    warehouseDir,
+                    databases,
+                    tables,
+                    partitions,
+                    functions,
+                    directories
+            );
+        }
+
+    }
+
+    private static final class State implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String dataDir;
+        private final String warehouseDir;
+        private final List<Database> databases;
+        private final List<Table> tables;
+        private final List<Partition> partitions;
+        private final List<Function> functions;
+        private final List<String> directories;
+
+        private State(final String dataDir,
+                      final String warehouseDir,
+                      final List<Database> databases,
+                      final List<Table> tables,
+                      final List<Partition> partitions,
+                      final List<Function> functions,
+                      final List<String> directories) {
+            this.dataDir = dataDir;
+            this.warehouseDir = warehouseDir;
+            this.databases = new ArrayList<>(databases);
+            this.tables = new ArrayList<>(tables);
+            this.partitions = new ArrayList<>(partitions);
+            this.functions = new ArrayList<>(functions);
+            this.directories = new ArrayList<>(directories);
+        }
+
+    }
+
+    /**
+     * Moves locations under the data and warehouse directories of the snapshot test to the ones of the current test.
+     */
+    private static final class Relocation {
+
+        private final String oldDataDir;
+        private final String oldWarehouseDir;
+        private final Path dataDir;
+        private final Path warehouseDir;
+
+        private Relocation(final State state,
+                           final HuterContext ctx) {
+            this.oldDataDir = state.dataDir;
+            this.oldWarehouseDir = state.warehouseDir;
+            this.dataDir = ctx.getDataDir().toAbsolutePath();
+            this.warehouseDir = ctx.getHiveWareHouseDir().toAbsolutePath();
+        }
+
+        private Path target(final String directory) {
+
+            final int slash = directory.indexOf('/');
+            final String root = slash < 0 ? directory : directory.substring(0, slash);
+            final String rest = slash < 0 ? "" : directory.substring(slash + 1);
+            final Path base = WAREHOUSE_ROOT.equals(root) ? this.warehouseDir : this.dataDir;
+            return rest.isEmpty() ? base : base.resolve(rest);
+        }
+
+        private String location(final String location) {
+
+            final String directory = relative(location, this.oldDataDir, this.oldWarehouseDir);
+            return directory == null
+                    ? location
+                    : "file://" + this.target(directory);
+        }
+
+        /**
+         * @return the location as "data/relative/path" or "warehouse/relative/path", null if under neither.
+         */
+        private static String relative(final String location,
+                                       final String dataDir,
+                                       final String warehouseDir) {
+
+            if (location == null || !location.startsWith("file:"))
+                return null;
+
+            final String path = stripFileScheme(location);
+
+            // The most specific one first, one might contain the other.
+            final boolean warehouseFirst = warehouseDir.length() >= dataDir.length();
+            final String first = warehouseFirst ? warehouseDir : dataDir;
+            final String second = warehouseFirst ? dataDir : warehouseDir;
+
+            String relative = under(path, first);
+            if (relative != null)
+                return (warehouseFirst ? WAREHOUSE_ROOT : DATA_ROOT) + relative;
+
+            relative = under(path, second);
+            if (relative != null)
+                return (warehouseFirst ? DATA_ROOT : WAREHOUSE_ROOT) + relative;
+
+            return null;
+        }
+
+        private static String under(final String path,
+                                    final String dir) {
+
+            if (path.equals(dir))
+                return "";
+            else if (path.startsWith(dir + "/"))
+                return path.substring(dir.length());
+            else
+                return null;
+        }
+
+        private static String stripFileScheme(final String location) {
+
+            String path = location.substring("file:".length());
+            while (path.startsWith("//"))
+                path = path.substring(1);
+            while (path.endsWith("/") && path.length() > 1)
+                path = path.substring(0, path.length() - 1);
+            return path;
+        }
+
+    }
+
+}
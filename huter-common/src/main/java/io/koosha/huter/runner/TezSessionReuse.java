@@ -0,0 +1,145 @@
+package io.koosha.huter.runner;
+
+import io.koosha.huter.internal.HuterFiles;
+import io.koosha.huter.internal.HuterProperties;
+import org.apache.hadoop.hive.ql.exec.tez.TezSessionState;
+import org.apache.hadoop.hive.ql.session.SessionState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the Tez session (and its local AM) of a finished test alive and hands it to the next test, instead of letting
+ * every test start and tear down its own.
+ * <p>
+ * A single idle session is kept per JVM: it is detached from the session state of a test before that session state
+ * is closed, and attached to the session state of the next test, where Hive's session pool manager accepts it as an
+ * already open session. Between tests the session is only reset (running DAGs killed), see
+ * {@link HuterContext#close()}. The idle session is closed when the JVM exits.
+ * <p>
+ * The session outlives the test which opened it, and so the root of that test, which its user may delete right away.
+ * The jars it localizes are therefore kept in a directory of the JVM ({@link #jarDir()}) instead of under the root
+ * of the test, and a session whose jars are gone anyway is closed instead of being handed out.
+ */
+final class TezSessionReuse {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TezSessionReuse.class);
+
+    /**
+     * Whether if the Tez session should be reused across tests, and containers reused across tasks.
+     */
+    static final String REUSE_PROPERTY = "huter.tez.sessionReuse";
+
+    private static final boolean ENABLED = HuterProperties.getBoolean(REUSE_PROPERTY, false);
+
+    private static final AtomicReference<TezSessionState> IDLE = new AtomicReference<>();
+
+    private static final Path JAR_DIR = ENABLED ? createJarDir() : null;
+
+    static {
+        if (ENABLED)
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                closeIdle();
+                try {
+                    HuterFiles.deleteDir(JAR_DIR);
+                }
+                catch (final IOException e) {
+                    LOG.warn("could not delete tez jar dir={}", JAR_DIR, e);
+                }
+            }, "huter-tez-session-close"));
+    }
+
+    private TezSessionReuse() {
+        throw new UnsupportedOperationException("can not instantiate utility class");
+    }
+
+    static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Where the jars of reused sessions are localized, living as long as the JVM. Null if reuse is disabled.
+     */
+    static Path jarDir() {
+        return JAR_DIR;
+    }
+
+    /**
+     * Hands the idle Tez session, if any, to the given session state.
+     */
+    static void attach(final SessionState sessionState) {
+
+        if (!ENABLED)
+            return;
+
+        final TezSessionState tez = IDLE.getAndSet(null);
+        if (tez == null)
+            return;
+
+        if (!tez.isOpen()) {
+            LOG.debug("idle tez session is not open anymore, dropping it");
+            return;
+        }
+
+        if (!Files.isDirectory(JAR_DIR)) {
+            LOG.warn("jar dir of idle tez session is gone, closing it, dir={}", JAR_DIR);
+            close(tez);
+            return;
+        }
+
+        LOG.debug("reusing tez session={}", tez.getSessionId());
+        sessionState.setTezSession(tez);
+    }
+
+    /**
+     * Takes the Tez session of the given session state back, so that closing the session state does not close it.
+     * If another session is already idle, the session state keeps its own and closes it as usual.
+     */
+    static void detach(final SessionState sessionState) {
+
+        if (!ENABLED || sessionState == null)
+            return;
+
+        final TezSessionState tez = sessionState.getTezSession();
+        if (tez == null || !tez.isOpen())
+            return;
+
+        if (IDLE.compareAndSet(null, tez)) {
+            LOG.debug("keeping tez session={}", tez.getSessionId());
+            sessionState.setTezSession(null);
+        }
+    }
+
+    private static void closeIdle() {
+
+        final TezSessionState tez = IDLE.getAndSet(null);
+        if (tez != null)
+            close(tez);
+    }
+
+    private static void close(final TezSessionState tez) {
+
+        try {
+            tez.close(false);
+        }
+        catch (final Exception e) {
+            LOG.warn("could not close idle tez session={}", tez.getSessionId(), e);
+        }
+    }
+
+    private static Path createJarDir() {
+
+        try {
+            return Files.createTempDirectory("huter_tez_jars");
+        }
+        catch (final IOException e) {
+            throw new UncheckedIOException("could not create tez jar dir", e);
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package io.koosha.huter;
+
+import io.koosha.huter.internal.HuterFiles;
+import io.koosha.huter.internal.HuterMetrics;
+import io.koosha.huter.main.HuterMain;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+
+/**
+ * Runs the same Tez backed test repeatedly and reports the latency of its DAG runs (Hive's perf logger, see
+ * {@link ExecutionAuditHook#DAG_METRIC}) and of the whole test. Run it once with -Dhuter.tez.sessionReuse=false and
+ * once with -Dhuter.tez.sessionReuse=true to compare. Each test gets its own root, kept until the end, as the repo
+ * runner does. Usage: DagLatencyBenchmark [iterations], first iteration is warm up.
+ */
+public final class DagLatencyBenchmark {
+    private DagLatencyBenchmark() {
+    }
+
+    private static final String TARGET = "/tmp/huter_dag_bench";
+
+    private static final String[] ARGS = {
+        "-q SELECT FALSE",
+        "-t SELECT a, COUNT(*) FROM (SELECT 1 AS a UNION ALL SELECT 2 AS a) x GROUP BY a"
+    };
+
+    public static void main(final String... args) throws Exception {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName dag = new ObjectName(
+            HuterMetrics.DOMAIN + ":type=Latency,name=" + ExecutionAuditHook.DAG_METRIC);
+
+        deleteTarget();
+
+        long totalMillis = 0;
+        long maxMillis = 0;
+        for (int i = 0; i <= iterations; i++) {
+            final String[] testArgs = new String[ARGS.length + 1];
+            testArgs[0] = "--root=" + Paths.get(TARGET, Integer.toString(i));
+            System.arraycopy(ARGS, 0, testArgs, 1, ARGS.length);
+
+            final long start = System.nanoTime();
+            HuterMain.run(testArgs);
+            final long millis = (System.nanoTime() - start) / 1_000_000;
+
+            // Warm up.
+            if (i == 0) {
+                if (server.isRegistered(dag))
+                    server.invoke(dag, "reset", new Object[0], new String[0]);
+                continue;
+            }
+
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+        }
+
+        if (!server.isRegistered(dag))
+            throw new IllegalStateException("no dag latency recorded, is huter.jmx disabled or tez not used?");
+
+        System.out.printf(
+            "sessionReuse=%s iterations=%d dags=%d dagP50Millis=%.1f dagMeanMillis=%.1f dagMaxMillis=%.1f "
+                + "testAvgMillis=%d testMaxMillis=%d%n",
+            System.getProperty("huter.tez.sessionReuse", "false"),
+            iterations,
+            (Long) server.getAttribute(dag, "Count"),
+            (Double) server.getAttribute(dag, "P50Millis"),
+            (Double) server.getAttribute(dag, "MeanMillis"),
+            (Double) server.getAttribute(dag, "MaxMillis"),
+            totalMillis / iterations,
+            maxMillis
+        );
+
+        deleteTarget();
+        System.exit(0);
+    }
+
+    private static void deleteTarget() {
+        try {
+            HuterFiles.deleteDir(Paths.get(TARGET));
+        }
+        catch (final Exception ignore) {
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package io.koosha.huter;
+
+import io.koosha.huter.internal.HuterFiles;
+import io.koosha.huter.main.HuterMain;
+import io.koosha.huter.runner.HuterWarmup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the time from JVM start to the result of the first test with and without {@link HuterWarmup}, each
+ * iteration in a new JVM. The entry point's own work the warm-up overlaps with (test discovery, waiting for the first
+ * request) is modeled by sleeping idleMillis; with 0 the warm-up has nothing to hide behind and only costs.
+ * Usage: FirstTestLatencyBenchmark [iterations] [idleMillis]
+ */
+public final class FirstTestLatencyBenchmark {
+    private FirstTestLatencyBenchmark() {
+    }
+
+    private static final String TARGET = "/tmp/huter_bench_first";
+
+    private static final String[] ARGS = {
+        "--root=" + TARGET,
+        "-q SELECT 1",
+        "-t SELECT FALSE"
+    };
+
+    public static void main(final String... args) throws Exception {
+        if (args.length > 0 && "child".equals(args[0])) {
+            child(Long.parseLong(args[1]));
+            return;
+        }
+
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        final long idleMillis = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        for (final boolean warmup : new boolean[]{false, true}) {
+            long firstTestMillis = 0;
+            long warmupMillis = 0;
+            for (int i = 0; i < iterations; i++) {
+                final long[] measured = spawn(warmup, idleMillis);
+                firstTestMillis += measured[0];
+                warmupMillis += measured[1];
+            }
+
+            System.out.printf(
+                "warmup=%s iterations=%d idleMillis=%d avgFirstResultMillis=%d avgWarmupMillis=%d%n",
+                warmup, iterations, idleMillis, firstTestMillis / iterations, warmup ? warmupMillis / iterations : 0
+            );
+        }
+
+        System.exit(0);
+    }
+
+    private static long[] spawn(final boolean warmup,
+                                final long idleMillis) throws Exception {
+        final List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-D" + HuterWarmup.WARMUP_PROPERTY + "=" + warmup);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(FirstTestLatencyBenchmark.class.getName());
+        command.add("child");
+        command.add(Long.toString(idleMillis));
+
+        final Process process = new ProcessBuilder(command)
+            .redirectError(ProcessBuilder.Redirect.to(new File("/dev/null")))
+            .start();
+
+        long[] measured = null;
+        try (final BufferedReader reader = new BufferedReader(
+            new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null)
+                if (line.startsWith("huter_bench ")) {
+                    final String[] parts = line.split(" ");
+                    measured = new long[]{Long.parseLong(parts[1]), Long.parseLong(parts[2])};
+                }
+        }
+
+        if (process.waitFor() != 0 || measured == null)
+            throw new IllegalStateException("benchmark child failed, warmup=" + warmup);
+        return measured;
+    }
+
+    private static void child(final long idleMillis) throws Exception {
+        try {
+            HuterFiles.deleteDir(Paths.get(TARGET));
+        }
+        catch (final Exception ignore) {
+        }
+
+        // As the entry points do, which then discover tests or wait for a request meanwhile.
+        HuterWarmup.start();
+        Thread.sleep(idleMillis);
+
+        // Waits for the warm-up, if any.
+        HuterMain.run(ARGS.clone());
+        final long millis = ManagementFactory.getRuntimeMXBean().getUptime();
+        final long warmupMillis = Math.max(0, HuterWarmup.await());
+
+        System.out.println("huter_bench " + millis + " " + warmupMillis);
+        System.exit(0);
+    }
+
+}
@@ -0,0 +1,65 @@
+package io.koosha.huter;
+
+import io.koosha.huter.internal.HuterFiles;
+import io.koosha.huter.main.HuterMain;
+import io.koosha.huter.runner.HuterContext;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Paths;
+
+/**
+ * Compares the startup time and thread count of a trivial test between the engines, see
+ * {@link HuterContext.Engine}. Usage: StartupBenchmark [iterations], first iteration of each engine is warm up.
+ */
+public final class StartupBenchmark {
+    private StartupBenchmark() {
+    }
+
+    private static final String TARGET = "/tmp/huter_bench";
+
+    private static final String[] ARGS = {
+        "--root=" + TARGET,
+        "-q SELECT FALSE",
+        "-t SELECT FALSE"
+    };
+
+    public static void main(final String... args) throws Exception {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        for (final HuterContext.Engine engine : HuterContext.Engine.values()) {
+            System.setProperty(HuterContext.ENGINE_PROPERTY, engine.name());
+
+            long totalMillis = 0;
+            int maxPeakThreads = 0;
+            for (int i = 0; i <= iterations; i++) {
+                try {
+                    HuterFiles.deleteDir(Paths.get(TARGET));
+                }
+                catch (final Exception ignore) {
+                }
+
+                threads.resetPeakThreadCount();
+                final long start = System.nanoTime();
+                HuterMain.run(ARGS.clone());
+                final long millis = (System.nanoTime() - start) / 1_000_000;
+
+                // Warm up.
+                if (i == 0)
+                    continue;
+
+                totalMillis += millis;
+                maxPeakThreads = Math.max(maxPeakThreads, threads.getPeakThreadCount());
+            }
+
+            System.out.printf(
+                "engine=%s iterations=%d avgMillis=%d peakThreads=%d liveThreadsAfter=%d%n",
+                engine, iterations, totalMillis / iterations, maxPeakThreads, threads.getThreadCount()
+            );
+        }
+
+        System.exit(0);
+    }
+
+}
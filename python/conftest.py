@@ -1,9 +1,13 @@
+import base64
+import decimal
+import hashlib
+import json
 import os
+import socket
 import sys
 import tempfile
-from typing import List, Union
+from typing import List, Optional, Union
 
-from py4j.java_collections import JavaArray
 from py4j.java_gateway import GatewayParameters
 from py4j.java_gateway import JavaGateway
 from py4j.java_gateway import launch_gateway
@@ -22,6 +26,10 @@ JAVA_OPTIONS = ['-Xmx2048m', '-Xms2048m']
 # This is a string value, containing multiple directories separated by os.pathsep.
 ENV_VAR__DEFAULT_JAR_DIR = 'HUTER_DIR'
 ENV_VAR__SHOW_JVM_OUTPUT = 'HUTER_SHOW_JVM_OUTPUT'
+ENV_VAR__WARMUP = 'HUTER_WARMUP'
+ENV_VAR__CDS = 'HUTER_CDS'
+ENV_VAR__POOL = 'HUTER_POOL'
+ENV_VAR__TRACE = 'HUTER_TRACE'
 
 # Default place to look for jars when launching a JVM.
 # Controlled by the environmental variable ENV_VAR__DEFAULT_JAR_DIR
@@ -33,9 +41,32 @@ SHOW_JVM_OUTPUT = False
 if ENV_VAR__SHOW_JVM_OUTPUT in os.environ:
     SHOW_JVM_OUTPUT = os.environ[ENV_VAR__SHOW_JVM_OUTPUT].lower() in ["1", "true", "yes"]
 
+# Warm up launched JVMs in the background, see huter.warmup.
+if ENV_VAR__WARMUP in os.environ and os.environ[ENV_VAR__WARMUP].lower() in ["1", "true", "yes"]:
+    JAVA_OPTIONS.append('-Dhuter.warmup=true')
+
+# Write a trace event timeline of each launched JVM, see huter.trace. The value is
+# the trace file, better containing {pid} as each JVM writes its own.
+if os.environ.get(ENV_VAR__TRACE):
+    JAVA_OPTIONS.append('-Dhuter.trace=' + os.environ[ENV_VAR__TRACE])
+
+# Use a class data sharing archive in launched JVMs (JDK 13+), created by the first JVM and used by the later ones.
+USE_CDS = False
+if ENV_VAR__CDS in os.environ:
+    USE_CDS = os.environ[ENV_VAR__CDS].lower() in ["1", "true", "yes"]
+
+# Lease engines from a running huterpool instead of launching a JVM. Either the
+# path of the pool file, or true for the default one.
+POOL_FILE = None
+if ENV_VAR__POOL in os.environ:
+    if os.environ[ENV_VAR__POOL].lower() in ["1", "true", "yes"]:
+        POOL_FILE = os.path.join(os.path.expanduser('~'), '.huterpool')
+    elif os.environ[ENV_VAR__POOL].lower() not in ["", "0", "false", "no"]:
+        POOL_FILE = os.environ[ENV_VAR__POOL]
+
 
 def get_entry_point(gateway):
-    return gateway.jvm.io.koosha.huter.main.SingleHiveUnitTestRunnerMain
+    return gateway.jvm.io.koosha.huter.main.HuterGatewayEntryPoint
 
 
 def _join(*path_pars: str) -> str:
@@ -63,10 +94,31 @@ def _get_class_path(directories: List[str]) -> str:
     jars = []
     for d in directories:
         if os.path.isdir(d):
-            jars.extend([os.path.join(d, jar) for jar in os.listdir(d) if jar.endswith(".jar")])
+            jars.extend(sorted([os.path.join(d, jar) for jar in os.listdir(d) if jar.endswith(".jar")]))
     return os.pathsep.join(jars)
 
 
+def _cds_options(class_path: str) -> List[str]:
+    """
+    JVM options to use, or to create, the class data sharing archive of the
+    given class path. An archive is only valid for the class path it was
+    created with, hence it is keyed by it. JVMs not supporting it ignore it,
+    which includes the Java 8 Hive runs on: creating one needs JDK 13+.
+
+    :param class_path: the class path the JVM is launched with.
+    :return: the JVM options.
+    """
+    if not USE_CDS:
+        return []
+
+    key = hashlib.sha256(class_path.encode('utf-8')).hexdigest()[:16]
+    archive = os.path.join(tempfile.gettempdir(), 'huter-py4j-' + key + '.jsa')
+    if os.path.isfile(archive):
+        return ['-XX:+IgnoreUnrecognizedVMOptions', '-Xshare:auto', '-XX:SharedArchiveFile=' + archive]
+    else:
+        return ['-XX:+IgnoreUnrecognizedVMOptions', '-XX:ArchiveClassesAtExit=' + archive]
+
+
 def _launch(class_path: str) -> JavaGateway:
     """
     Launch a py4j JVM, and use the given class path.
@@ -83,7 +135,7 @@ def _launch(class_path: str) -> JavaGateway:
         stderr = None
 
     port = launch_gateway(
-        javaopts=JAVA_OPTIONS,
+        javaopts=JAVA_OPTIONS + _cds_options(class_path),
         die_on_exit=True,
         classpath=class_path,
         redirect_stdout=stdout,
@@ -99,6 +151,9 @@ def _launch(class_path: str) -> JavaGateway:
 
     jvm = JavaGateway(gateway_parameters=params)
 
+    # No-op unless enabled, returns immediately.
+    get_entry_point(jvm).warmUp()
+
     return jvm
 
 
@@ -117,20 +172,90 @@ def _pre_launched(port: int) -> JavaGateway:
     return jvm
 
 
-def _decode_output_result(result) -> dict:
+def _decode_tagged(obj: dict):
+    """
+    Decode the values which json numbers can not carry exactly, tagged by
+    HuterJson on the java side: decimals, NaN / infinite floats and binary
+    values (as bytearray, as py4j gives them).
+
+    :param obj: a decoded json object.
+    :return: the value the object stands for, or the object itself.
+    """
+    if len(obj) == 1 and isinstance(obj.get('$decimal'), str):
+        return decimal.Decimal(obj['$decimal'])
+    if len(obj) == 1 and isinstance(obj.get('$float'), str):
+        return float(obj['$float'])
+    if len(obj) == 1 and isinstance(obj.get('$binary'), str):
+        return bytearray(base64.b64decode(obj['$binary']))
+    return obj
+
+
+def _decode_output_result(result: str) -> dict:
     """
-    Convert result from Huter output which is java format into plain python objects.
+    Convert result from Huter output, serialized as a single json string on
+    the java side, into plain python objects.
 
     :param result: result from Huter output.
     :return: converted output from java objects into python objects.
     """
+    decoded = json.loads(result, object_hook=_decode_tagged)
     return {
-        "output": [[j for j in i] for i in result.getOutput()],
-        "errors": [i for i in result.getErrors()],
-        "huterOutput": result.getHuterOutput(),
+        "output": decoded.get("output") or [],
+        "errors": decoded.get("errors") or [],
+        "huterOutput": decoded.get("huterOutput"),
     }
 
 
+def _request(port: int, request: dict, sock: Optional[socket.socket] = None) -> str:
+    """
+    Send a single json line request to a huterd or huterpool, and read its
+    single json line response.
+
+    :param port: port of the daemon on localhost, if no socket is given.
+    :param request: the request.
+    :param sock: an already connected socket, left open.
+    :return: the response, as json string.
+    """
+    s = sock if sock is not None else socket.create_connection(('127.0.0.1', port))
+    try:
+        s.sendall((json.dumps(request) + '\n').encode('utf-8'))
+        line = s.makefile('r', encoding='utf-8').readline()
+        if not line:
+            raise ConnectionError('connection closed without a response')
+        return line
+    finally:
+        if sock is None:
+            s.close()
+
+
+class _PooledEngine:
+    """
+    A huterd engine leased from a huterpool, for as long as the connection to
+    the pool is kept open.
+    """
+
+    def __init__(self, pool_file: str):
+        with open(pool_file, 'r') as f:
+            lines = [line.strip() for line in f.readlines()]
+        if len(lines) < 2:
+            raise ValueError('invalid pool file: ' + pool_file)
+
+        self._lease = socket.create_connection(('127.0.0.1', int(lines[0])))
+        lease = json.loads(_request(0, {'token': lines[1], 'command': 'lease'}, self._lease))
+        if lease.get('errors'):
+            self._lease.close()
+            raise RuntimeError('could not lease an engine: ' + str(lease['errors']))
+
+        self._port = int(lease['port'])
+        self._token = lease['token']
+
+    def run_json(self, args: List[str]) -> str:
+        return _request(self._port, {'token': self._token, 'args': args})
+
+    def release(self) -> None:
+        self._lease.close()
+
+
 class HuterGateway:
     """
     A gateway, through which you can connect to hive and conduct unit tests
@@ -198,7 +323,9 @@ class HuterGateway:
          - If it is NONE, a py4j gateway is launched and class path is set to
            what :DEFAULT_JAR_DIR: points to. The :DEFAULT_JAR_DIR: has some
            default value but if the environmental variable 'HUTER_DIR' is set,
-           overrides it.
+           overrides it. If the environmental variable 'HUTER_POOL' is set, no
+           JVM is launched: an engine is leased from the running huterpool
+           instead, until the gateway is closed.
          - Else if it is int, it means to connect to a pre launched py4j gateway at
            this given port. If the value is less than 0, py4j's default port
            will be used.
@@ -210,6 +337,7 @@ class HuterGateway:
         """
 
         self.gateway = None
+        self._engine = None
         self._gateway = gateway
         self._is_open = False
         self._is_pre_launched = isinstance(gateway, int)
@@ -237,6 +365,9 @@ class HuterGateway:
         return self
 
     def __exit__(self, exc_type, exc_val, exc_tb) -> None:
+        if self._engine is not None:
+            self._engine.release()
+            self._engine = None
         if self.gateway is not None and not self._is_pre_launched:
             self.gateway.shutdown()
 
@@ -253,7 +384,9 @@ class HuterGateway:
             return
         self._is_open = True
 
-        if self._gateway is None:
+        if self._gateway is None and POOL_FILE is not None:
+            self._engine = _PooledEngine(POOL_FILE)
+        elif self._gateway is None:
             class_path = _get_class_path(self._jar_dir)
             self.gateway = _launch(class_path)
         elif isinstance(self._gateway, int):
@@ -310,26 +443,17 @@ class HuterGateway:
 
         return args
 
-    def _get_java_options(self, args: List[str]) -> JavaArray:
-        """
-        Convert Huter options from python's string list to corresponding java array.
-        :param args: list of options.
-        :return: populated java array.
-        """
-        java_args = self.gateway.new_array(
-            self.gateway.jvm.String, len(args))
-        for i, arg in enumerate(args):
-            java_args[i] = arg
-        return java_args
-
     def _entry_point(self):
         return get_entry_point(self.gateway)
 
     def _run(self):
         self._open()
         args = self._get_options()
-        j_args = self._get_java_options(args)
-        result = self._entry_point().run(j_args)
+        if self._engine is not None:
+            result = self._engine.run_json(args)
+        else:
+            # Single round trip each way, whatever the size of the result.
+            result = self._entry_point().runJson(json.dumps(args))
         return _decode_output_result(result)
 
     # ---------------------------------------------------------- EXECUTE METHODS